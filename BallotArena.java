@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * Stores all the ballots of an election in a few large arrays of ints, 
+ * rather than as one object per voter.  Each ballot is identified by its 
+ * index, counting from 0 in the order the ballots were added, and consists of
+ * the candidates the voter ranked, in order of preference, and the number of
+ * voters who cast it.
+ *
+ * The preferences of all the ballots are laid end to end in chunks of 
+ * CHUNK_SIZE ints, and the spans and weights are kept in chunks of
+ * CHUNK_SIZE ballots, so the arena grows without copying what it already 
+ * holds and without asking for one enormous array.  A position in the 
+ * preferences is a long counting ints from the start of the first chunk, 
+ * and each ballot's span packs the position of its first preference and the
+ * number of its preferences into one long, so the arena is not limited to 
+ * 2^31 ballots or preferences.
+ */
+public class BallotArena implements BallotStore {
+    // The number of bits of a position that hold the offset in a chunk.
+    private static final int CHUNK_SHIFT = 20;
+
+    // The number of ints in each chunk.
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // The mask for the offset in a chunk.
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // The number of bits of a span that hold the number of preferences,
+    // which is at most CHUNK_SIZE, and a mask of that many bits.
+    private static final int LENGTH_BITS = CHUNK_SHIFT + 1;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+    // The most chunks of preferences whose positions fit in a span.
+    private static final int MAX_CHUNKS = 
+        1 << (Long.SIZE - 1 - LENGTH_BITS - CHUNK_SHIFT);
+
+    // The number of candidates in the election.
+    private final int numCandidates;
+
+    // The preferences of all the ballots.
+    private int[][] preferences = new int[0][];
+
+    // The position just past the last preference stored.
+    private long end;
+
+    // For each ballot, the position of its first preference shifted left by
+    // LENGTH_BITS, joined with the number of its preferences.
+    private long[][] spans = new long[0][];
+
+    // For each ballot, the number of voters who cast it, or null if every
+    // ballot has a weight of 1.
+    private long[][] weights;
+
+    // The number of ballots stored.
+    private long size;
+
+    /**
+     * Creates an empty arena for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     * @throws IllegalArgumentException if a ballot ranking every candidate
+     * would not fit in a chunk
+     */
+    public BallotArena(int numCandidates) {
+        if (numCandidates > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Too many candidates: " +
+                                               numCandidates);
+        }
+        this.numCandidates = numCandidates;
+    }
+
+    /**
+     * Adds a ballot.
+     * @param ranks the array holding a valid ballot, with a rank for each
+     * candidate or 0 for the candidates the voter did not rank
+     * @param offset the position in the array of the first candidate's rank
+     * @param weight the number of voters who cast the ballot
+     * @return the index of the new ballot
+     * @throws IllegalStateException if the arena is full
+     */
+    @Override
+    public long add(int[] ranks, int offset, long weight) {
+        int ranked = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            if (ranks[offset + i] != 0) {
+                ranked++;
+            }
+        }
+        if ((end & CHUNK_MASK) + ranked > CHUNK_SIZE || 
+                (end >>> CHUNK_SHIFT) == preferences.length) {
+            // Start the ballot at the beginning of a new chunk so that its
+            // preferences are all in one chunk.
+            int chunk = preferences.length;
+            if (chunk == MAX_CHUNKS) {
+                throw new IllegalStateException("Too many ballots");
+            }
+            preferences = Arrays.copyOf(preferences, chunk + 1);
+            preferences[chunk] = new int[CHUNK_SIZE];
+            end = (long) chunk << CHUNK_SHIFT;
+        }
+        int[] chunk = preferences[(int) (end >>> CHUNK_SHIFT)];
+        int base = (int) end & CHUNK_MASK;
+        for (int i = 0; i < numCandidates; i++) {
+            int rank = ranks[offset + i];
+            if (rank != 0) {
+                chunk[base + rank - 1] = i;
+            }
+        }
+
+        long ballot = size;
+        int block = (int) (ballot >>> CHUNK_SHIFT);
+        int index = (int) ballot & CHUNK_MASK;
+        if (index == 0) {
+            spans = Arrays.copyOf(spans, block + 1);
+            spans[block] = new long[CHUNK_SIZE];
+            if (weights != null) {
+                weights = Arrays.copyOf(weights, block + 1);
+                weights[block] = new long[CHUNK_SIZE];
+            }
+        }
+        spans[block][index] = end << LENGTH_BITS | ranked;
+        end += ranked;
+        if (weight != 1 && weights == null) {
+            addWeights();
+        }
+        if (weights != null) {
+            weights[block][index] = weight;
+        }
+        size++;
+        return ballot;
+    }
+
+    /**
+     * @return the number of ballots stored
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return false, since ballots can always be added
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @return the number of voters who cast the ballot
+     */
+    @Override
+    public long getWeight(long ballot) {
+        if (weights == null) {
+            return 1;
+        }
+        return weights[(int) (ballot >>> CHUNK_SHIFT)]
+                      [(int) ballot & CHUNK_MASK];
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @param preference which of the voter's preferences to read, counting 
+     * from 0 for their first choice
+     * @return the position of the candidate the voter gave that preference
+     */
+    @Override
+    public int getPreference(long ballot, int preference) {
+        // A ballot's preferences are all in one chunk.
+        long start = getSpan(ballot) >>> LENGTH_BITS;
+        return preferences[(int) (start >>> CHUNK_SHIFT)]
+                          [((int) start & CHUNK_MASK) + preference];
+    }
+
+    /**
+     * Finds the voter's top choice among the candidates still in the 
+     * election, reading down the ballot from a given preference past the 
+     * candidates that have been eliminated.
+     * @param ballot the index of a ballot
+     * @param from the first preference to read, counting from 0
+     * @param eliminated a bitset for the count, with the bit for each
+     * eliminated candidate set
+     * @return the first preference, from the given one on, that names a 
+     * candidate still in the election, or -1 if the ballot is exhausted
+     */
+    @Override
+    public int nextContinuingPreference(long ballot, int from, 
+                                        long[] eliminated) {
+        long span = getSpan(ballot);
+        long start = span >>> LENGTH_BITS;
+        // A ballot's preferences are all in one chunk.
+        int[] ballotPreferences = preferences[(int) (start >>> CHUNK_SHIFT)];
+        int first = (int) start & CHUNK_MASK;
+        int last = first + (int) (span & LENGTH_MASK);
+        for (int i = first + from; i < last; i++) {
+            int next = ballotPreferences[i];
+            if ((eliminated[next >>> 6] & (1L << next)) == 0) {
+                return i - first;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @return the position of the ballot's first preference shifted left by
+     * LENGTH_BITS, joined with the number of its preferences
+     */
+    private long getSpan(long ballot) {
+        return spans[(int) (ballot >>> CHUNK_SHIFT)][(int) ballot & CHUNK_MASK];
+    }
+
+    /**
+     * Starts storing weights, giving every ballot stored so far a weight of 1.
+     */
+    private void addWeights() {
+        weights = new long[spans.length][];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = new long[CHUNK_SIZE];
+            Arrays.fill(weights[i], 1);
+        }
+    }
+}
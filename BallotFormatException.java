@@ -0,0 +1,67 @@
+/**
+ * Thrown when a ballot line in an election file cannot be parsed.  The
+ * exception records where the line went wrong so that the problem can be
+ * reported to the person who prepared the file.
+ */
+public class BallotFormatException extends NumberFormatException {
+    private static final long serialVersionUID = 1L;
+
+    // The line of the file, counting from 1, that could not be parsed.
+    private final long lineNumber;
+
+    // The column of the line, counting from 1, where the problem was found.
+    private final int column;
+
+    // Why the line could not be parsed.
+    private final String reason;
+
+    // The text of the line that could not be parsed.
+    private final String line;
+
+    /**
+     * Creates the exception.
+     * @param lineNumber the line of the file, counting from 1, that failed
+     * @param column the column of the line, counting from 1, where the
+     * problem was found
+     * @param reason why the line could not be parsed
+     * @param line the text of the line that failed
+     */
+    public BallotFormatException(long lineNumber, int column, String reason,
+                                 String line) {
+        super("Could not parse a ballot on line " + lineNumber + ", column " +
+              column + " (" + reason + "): " + line);
+        this.lineNumber = lineNumber;
+        this.column = column;
+        this.reason = reason;
+        this.line = line;
+    }
+
+    /**
+     * @return the line of the file, counting from 1, that could not be parsed
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the column of the line, counting from 1, where the problem was
+     * found
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return why the line could not be parsed
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the text of the line that could not be parsed
+     */
+    public String getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,179 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes ballot lines from bytes.  The digits of each rank are decoded
+ * straight into an array supplied by the caller, normally a block of rank
+ * rows that is reused for ballot after ballot, so parsing a line that is
+ * correctly formatted does not allocate anything.
+ *
+ * A ballot line holds one rank for each candidate.  The ranks are unsigned
+ * numbers separated by any mix of spaces and tabs, and spaces and tabs at the
+ * start or end of the line are ignored.  When a line is malformed, the parser
+ * records the column where the problem was found and why.
+ */
+public class BallotLineParser {
+    // The reason given for a token that is not an unsigned number.
+    private static final String NOT_A_NUMBER = "not a number";
+
+    // The reason given for a rank that does not fit in an int.
+    private static final String TOO_LARGE = "number too large";
+
+    // The number of ranks on a correctly formatted line.
+    private final int numCandidates;
+
+    // The reasons given for lines with the wrong number of ranks.
+    private final String tooMany;
+    private final String tooFew;
+
+    // The column, counting from 1, and the reason for the most recent
+    // malformed line.
+    private int errorColumn;
+    private String errorReason;
+
+    /**
+     * Creates a parser for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     */
+    public BallotLineParser(int numCandidates) {
+        this.numCandidates = numCandidates;
+        tooMany = "more than " + numCandidates + " ranks";
+        tooFew = "fewer than " + numCandidates + " ranks";
+    }
+
+    /**
+     * Decodes the ranks on a ballot line.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position just past the last byte of the line, not
+     * counting the line ending
+     * @param ranks the array to decode the ranks into.  There must be room
+     * for one rank for each candidate after the offset.
+     * @param offset the position in the array of the first rank
+     * @return the number of candidates if the line is a ballot, 0 if the line
+     * is blank, or -1 if the line is malformed, in which case
+     * {@link #getErrorColumn()} and {@link #getErrorReason()} describe the
+     * problem
+     */
+    public int parse(ByteBuffer bytes, int start, int end, int[] ranks,
+                     int offset) {
+        int count = 0;
+        int i = start;
+        while (true) {
+            while (i < end && isSpace(bytes.get(i))) {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+
+            int tokenStart = i;
+            int value = 0;
+            byte b;
+            while (i < end && (b = bytes.get(i)) >= '0' && b <= '9') {
+                int digit = b - '0';
+                if (value > (Integer.MAX_VALUE - digit) / 10) {
+                    return fail(tokenStart - start, TOO_LARGE);
+                }
+                value = value * 10 + digit;
+                i++;
+            }
+            if (i == tokenStart || (i < end && !isSpace(bytes.get(i)))) {
+                return fail(tokenStart - start, NOT_A_NUMBER);
+            }
+            if (count == numCandidates) {
+                return fail(tokenStart - start, tooMany);
+            }
+            ranks[offset + count] = value;
+            count++;
+        }
+        if (count != 0 && count != numCandidates) {
+            return fail(end - start, tooFew);
+        }
+        return count;
+    }
+
+    /**
+     * @return the column, counting from 1, where the most recent malformed
+     * line went wrong
+     */
+    public int getErrorColumn() {
+        return errorColumn;
+    }
+
+    /**
+     * @return why the most recent malformed line could not be parsed
+     */
+    public String getErrorReason() {
+        return errorReason;
+    }
+
+    /**
+     * Records a malformed line.
+     * @param position where the problem was found, relative to the start of
+     * the line
+     * @param reason why the line could not be parsed
+     * @return -1
+     */
+    private int fail(int position, String reason) {
+        errorColumn = position + 1;
+        errorReason = reason;
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Finds where one of the ranks on a ballot line starts.  This is used for
+     * reporting problems with a line that parsed correctly.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position just past the last byte of the line
+     * @param index which rank to find, counting from 0
+     * @return the column, counting from 1, of the first digit of the rank
+     */
+    static int rankColumn(ByteBuffer bytes, int start, int end, int index) {
+        int i = start;
+        for (int count = 0; ; count++) {
+            while (i < end && isSpace(bytes.get(i))) {
+                i++;
+            }
+            if (count == index || i == end) {
+                return i - start + 1;
+            }
+            while (i < end && !isSpace(bytes.get(i))) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Drops the carriage return of a Windows line ending.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position of the newline ending the line
+     * @return the position just past the last byte of the line's content
+     */
+    static int trimLineEnd(ByteBuffer bytes, int start, int end) {
+        if (end > start && bytes.get(end - 1) == '\r') {
+            return end - 1;
+        }
+        return end;
+    }
+
+    /**
+     * Decodes part of a buffer as text.  This is used for candidate names and
+     * for reporting problems, never for ballots that parse correctly.
+     * @param bytes the buffer holding the text
+     * @param start the position of the first byte of the text
+     * @param end the position just past the last byte of the text
+     * @return the text
+     */
+    static String lineText(ByteBuffer bytes, int start, int end) {
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
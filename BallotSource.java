@@ -0,0 +1,32 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of ballots for an election, such as an election file, standard
+ * input or a generator.  Ballots are pulled from the source a block at a
+ * time into an array supplied by the caller, so ballots can be streamed into
+ * an {@link Election} with a fixed amount of memory and without a method call
+ * per ballot.
+ *
+ * Within a block, each ballot is a row of ranks with one entry for each
+ * candidate, in the same order as {@link #getCandidateNames()}.  The rows
+ * follow each other directly, so ballot i starts at index i * n of the block
+ * when there are n candidates.
+ */
+public interface BallotSource extends Closeable {
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    String[] getCandidateNames();
+
+    /**
+     * Reads as many ballots as fit in the block.
+     * @param block the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if the ballots cannot be read
+     * @throws BallotFormatException if a ballot in the source is malformed.
+     * Any ballots before the malformed one are returned by earlier calls.
+     */
+    int read(int[] block) throws IOException;
+}
@@ -0,0 +1,68 @@
+/**
+ * Holds the ballots of an election.  Each ballot is identified by its index,
+ * counting from 0 in the order the ballots were added, and consists of the 
+ * candidates the voter ranked, in order of preference, and the number of 
+ * voters who cast it.  Indexes are longs, so a store can hold more than 
+ * 2^31 ballots.  A ballot never changes once it is added; which 
+ * candidates have been eliminated, and how far down each ballot has been 
+ * read, belong to each count of the ballots, so the same store can be 
+ * counted any number of times.
+ *
+ * {@link PackedBallotStore} packs each ballot of a small race into a long,
+ * {@link BallotArena} keeps longer ballots in arrays on the heap, and 
+ * {@link OffHeapBallotStore} keeps them in memory outside the heap.
+ */
+public interface BallotStore {
+    /**
+     * Adds a ballot.
+     * @param ranks the array holding a valid ballot, with a rank for each
+     * candidate or 0 for the candidates the voter did not rank
+     * @param offset the position in the array of the first candidate's rank
+     * @param weight the number of voters who cast the ballot
+     * @return the index of the new ballot
+     * @throws IllegalStateException if the store is full
+     */
+    long add(int[] ranks, int offset, long weight);
+
+    /**
+     * @return the number of ballots stored
+     */
+    long size();
+
+    /**
+     * @return true if no more ballots can be added to the store, as when its
+     * ballots are mapped from a file
+     */
+    boolean isReadOnly();
+
+    /**
+     * @param ballot the index of a ballot
+     * @return the number of voters who cast the ballot
+     */
+    long getWeight(long ballot);
+
+    /**
+     * @param ballot the index of a ballot
+     * @param preference which of the voter's preferences to read, counting 
+     * from 0 for their first choice
+     * @return the position of the candidate the voter gave that preference
+     */
+    int getPreference(long ballot, int preference);
+
+    /**
+     * Finds the voter's top choice among the candidates still in the 
+     * election, reading down the ballot from a given preference past the 
+     * candidates that have been eliminated.  A count keeps the preference
+     * each ballot has reached and starts just after it when the candidate
+     * holding the ballot is eliminated, so over a whole count each 
+     * preference on a ballot is read at most once, and each eliminated 
+     * candidate is skipped with a single bit test.
+     * @param ballot the index of a ballot
+     * @param from the first preference to read, counting from 0
+     * @param eliminated a bitset for the count, with the bit for each
+     * eliminated candidate set
+     * @return the first preference, from the given one on, that names a 
+     * candidate still in the election, or -1 if the ballot is exhausted
+     */
+    int nextContinuingPreference(long ballot, int from, long[] eliminated);
+}
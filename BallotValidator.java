@@ -0,0 +1,117 @@
+/**
+ * Checks that ballots rank the candidates correctly.  A voter may rank as
+ * many of the candidates as they like, giving a rank of 0 to the candidates
+ * they leave unranked: if a ballot ranks k candidates, their ranks must be a
+ * permutation of the numbers 1 to k.  At least one candidate must be ranked.
+ * The ranks seen on a ballot are marked in a bitset that is cleared and
+ * reused for ballot after ballot, so checking a ballot takes time linear in
+ * the number of candidates and does not allocate anything.
+ */
+public class BallotValidator {
+    // The number of ranks on a ballot.
+    private final int numCandidates;
+
+    // One bit for each rank, set once the rank has been seen on the ballot
+    // being checked.
+    private final long[] seen;
+
+    // The candidate, counting from 0, whose rank made the most recent
+    // invalid ballot invalid, and why.
+    private int errorCandidate;
+    private String errorReason;
+
+    /**
+     * Creates a validator for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     */
+    public BallotValidator(int numCandidates) {
+        this.numCandidates = numCandidates;
+        this.seen = new long[(numCandidates + 63) / 64];
+    }
+
+    /**
+     * Checks that the ranked candidates on a ballot hold a permutation of the
+     * numbers 1 to k.  If none of the k ranks is repeated, it is enough that
+     * the largest of them is k.
+     * @param ranks the array holding the ballot
+     * @param offset the position in the array of the first candidate's rank
+     * @return true if the ballot is valid.  If it is not,
+     * {@link #getErrorCandidate()} and {@link #getErrorReason()} describe
+     * the problem.
+     */
+    public boolean isValid(int[] ranks, int offset) {
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = 0;
+        }
+        // The number of candidates ranked, and the one ranked last.
+        int ranked = 0;
+        int last = -1;
+        for (int i = 0; i < numCandidates; i++) {
+            int rank = ranks[offset + i];
+            if (rank == 0) {
+                continue;
+            }
+            if (rank < 0 || rank > numCandidates) {
+                return fail(i, "rank " + rank + " is not between 0 and " +
+                               numCandidates);
+            }
+            int word = (rank - 1) >>> 6;
+            long bit = 1L << (rank - 1);
+            if ((seen[word] & bit) != 0) {
+                return fail(i, "rank " + rank + " is used more than once");
+            }
+            seen[word] |= bit;
+            ranked++;
+            if (last < 0 || rank > ranks[offset + last]) {
+                last = i;
+            }
+        }
+        if (ranked == 0) {
+            return fail(0, "no candidates are ranked");
+        }
+        int lastRank = ranks[offset + last];
+        if (lastRank != ranked) {
+            return fail(last, "rank " + lastRank + " is used but rank " +
+                                missingRank() + " is not");
+        }
+        return true;
+    }
+
+    /**
+     * @return the candidate, counting from 0, whose rank made the most recent
+     * invalid ballot invalid
+     */
+    public int getErrorCandidate() {
+        return errorCandidate;
+    }
+
+    /**
+     * @return why the most recent invalid ballot is invalid
+     */
+    public String getErrorReason() {
+        return errorReason;
+    }
+
+    /**
+     * @return the smallest rank not marked in the bitset
+     */
+    private int missingRank() {
+        int word = 0;
+        while (seen[word] == -1L) {
+            word++;
+        }
+        return word * 64 + Long.numberOfTrailingZeros(~seen[word]) + 1;
+    }
+
+    /**
+     * Records an invalid ballot.
+     * @param candidate the candidate whose rank is wrong
+     * @param reason why the ballot is invalid
+     * @return false
+     */
+    private boolean fail(int candidate, String reason) {
+        errorCandidate = candidate;
+        errorReason = reason;
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Describes the binary election file format.  A binary election file holds the
+ * same data as the text format described in {@link RankedChoiceVoting}, but
+ * the ballots are stored as fixed-width rows so that they can be loaded with
+ * bulk reads, or mapped straight into memory and counted where they lie, 
+ * instead of being parsed again every time.
+ *
+ * All numbers are big-endian.  The file is laid out as follows:
+ * <ul>
+ * <li>The 4 bytes "RCVB".
+ * <li>The format version, an int.  This describes version 2.
+ * <li>The number of candidates n, an int.
+ * <li>For each candidate, the length in bytes of their name followed by the
+ * name encoded as UTF-8.
+ * <li>The number of bytes used for each entry of a ballot, an int: 1 if 
+ * n &lt;= 255, 2 if n &lt;= 65535 and 4 otherwise.  Entries of 1 or 2 bytes 
+ * are unsigned.
+ * <li>The number of ballots, a long.
+ * <li>The ballots, each a row of n entries listing the positions of the 
+ * candidates the voter ranked, counting from 0, in order of preference.  If
+ * the voter ranked k candidates, the other n - k entries are n.
+ * </ul>
+ *
+ * In version 1 files, which can still be read, each row instead holds the
+ * rank of each candidate in the order the candidates are listed.
+ */
+public class BinaryElectionFormat {
+    // The bytes every binary election file starts with.
+    static final int MAGIC = ('R' << 24) | ('C' << 16) | ('V' << 8) | 'B';
+
+    // The version of the format written by BinaryElectionWriter.
+    static final int VERSION = 2;
+
+    // The version of the format that stores ranks rather than preferences.
+    static final int RANKS_VERSION = 1;
+
+    private BinaryElectionFormat() {
+    }
+
+    /**
+     * @param numCandidates the number of candidates in the election
+     * @return the number of bytes used to store each entry of a ballot
+     */
+    static int rankWidth(int numCandidates) {
+        if (numCandidates <= 0xFF) {
+            return 1;
+        }
+        if (numCandidates <= 0xFFFF) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Checks whether a file is a binary election file.
+     * @param filename the name of the file to check
+     * @return true if the file starts with the binary election file marker
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinaryElectionFile(String filename)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        }
+    }
+}
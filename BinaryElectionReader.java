@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads an election from a file in the binary format described in
+ * {@link BinaryElectionFormat}.  The ballots are read in large blocks and
+ * decoded into rows of ranks with bulk copies; nothing is parsed.  
+ * Alternatively, the ballots can be mapped into memory as they are, with
+ * {@link #mapBallots()}.
+ */
+public class BinaryElectionReader implements BallotSource {
+    // The number of bytes of ballots read from the file at once.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // The file being read.
+    private final RandomAccessFile file;
+
+    // The candidate names read from the start of the file.
+    private final String[] candidateNames;
+
+    // The version of the format the file is in.
+    private final int version;
+
+    // The number of bytes used to store each entry of a ballot.
+    private final int rankWidth;
+
+    // Where in the file the ballots start.
+    private final long ballotOffset;
+
+    // The number of ballots in the file.
+    private final long ballotCount;
+
+    // The number of ballots read so far.
+    private long ballotsRead;
+
+    // Holds the ballots most recently read from the file.
+    private final ByteBuffer buffer;
+
+    /**
+     * Opens a binary election file and reads the candidates from it.
+     * @param filename the name of the file to read
+     * @throws IOException if the file cannot be read, is not a binary
+     * election file, uses an unsupported version of the format, or has been
+     * cut short
+     */
+    public BinaryElectionReader(String filename) throws IOException {
+        file = new RandomAccessFile(filename, "r");
+        try {
+            if (file.length() < 4 ||
+                file.readInt() != BinaryElectionFormat.MAGIC) {
+                throw new IOException(filename + " is not a binary election " +
+                                      "file");
+            }
+            version = file.readInt();
+            if (version != BinaryElectionFormat.VERSION &&
+                version != BinaryElectionFormat.RANKS_VERSION) {
+                throw new IOException("Unsupported binary election file " +
+                                      "version " + version);
+            }
+            int numCandidates = file.readInt();
+            if (numCandidates < 0) {
+                throw new IOException("Invalid number of candidates: " +
+                                      numCandidates);
+            }
+            candidateNames = new String[numCandidates];
+            for (int i = 0; i < numCandidates; i++) {
+                int length = file.readInt();
+                long left = file.length() - file.getFilePointer();
+                if (length < 0 || length > left) {
+                    throw new IOException("Invalid candidate name length: " +
+                                          length);
+                }
+                byte[] bytes = new byte[length];
+                file.readFully(bytes);
+                candidateNames[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            rankWidth = file.readInt();
+            if (rankWidth != BinaryElectionFormat.rankWidth(numCandidates)) {
+                throw new IOException("Invalid rank width: " + rankWidth);
+            }
+            ballotCount = file.readLong();
+            ballotOffset = file.getFilePointer();
+            long rowSize = (long) numCandidates * rankWidth;
+            long remaining = file.length() - file.getFilePointer();
+            if (ballotCount < 0 || ballotCount * rowSize != remaining) {
+                throw new IOException("The binary election file is " +
+                                      "truncated or corrupt");
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        int rowSize = Math.max(1, candidateNames.length * rankWidth);
+        buffer = ByteBuffer.allocateDirect(
+            Math.max(rowSize, BUFFER_SIZE / rowSize * rowSize));
+    }
+
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * @return the number of ballots in the file
+     */
+    public long getBallotCount() {
+        return ballotCount;
+    }
+
+    /**
+     * Reads as many ballots as fit in the given array.  Each ballot is stored
+     * as a row of ranks, one for each candidate, directly after the previous
+     * ballot.
+     * @param rows the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public int read(int[] rows) throws IOException {
+        int numCandidates = candidateNames.length;
+        if (numCandidates == 0 || ballotsRead == ballotCount) {
+            return 0;
+        }
+        int rowSize = numCandidates * rankWidth;
+        long wanted = Math.min(rows.length / numCandidates,
+                               ballotCount - ballotsRead);
+        int ballots = (int) Math.min(wanted, buffer.capacity() / rowSize);
+        int values = ballots * numCandidates;
+
+        buffer.clear();
+        buffer.limit(values * rankWidth);
+        FileChannel channel = file.getChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("The binary election file is " +
+                                      "truncated");
+            }
+        }
+        buffer.flip();
+
+        if (version == BinaryElectionFormat.RANKS_VERSION) {
+            for (int i = 0; i < values; i++) {
+                rows[i] = entry(i);
+            }
+        } else {
+            // Turn each row of preferences back into a row of ranks.
+            Arrays.fill(rows, 0, values, 0);
+            for (int ballot = 0; ballot < ballots; ballot++) {
+                int start = ballot * numCandidates;
+                for (int i = 0; i < numCandidates; i++) {
+                    int candidate = entry(start + i);
+                    if (candidate >= numCandidates) {
+                        break;
+                    }
+                    rows[start + candidate] = i + 1;
+                }
+            }
+        }
+        ballotsRead += ballots;
+        return ballots;
+    }
+
+    /**
+     * Maps the ballots that have not been read yet straight into memory, 
+     * without copying them onto the heap.  The ballots are counted where 
+     * they lie in the file, so the file must not change while they are in 
+     * use.
+     * @return a store holding the ballots
+     * @throws IOException if the file cannot be mapped, or is in version 1
+     * of the format, which stores ranks rather than preferences
+     */
+    public OffHeapBallotStore mapBallots() throws IOException {
+        if (version != BinaryElectionFormat.VERSION) {
+            throw new IOException("Only version " + 
+                                  BinaryElectionFormat.VERSION + 
+                                  " binary election files can be mapped");
+        }
+        long rowSize = (long) candidateNames.length * rankWidth;
+        OffHeapBallotStore store = OffHeapBallotStore.map(
+            file.getChannel(), ballotOffset + ballotsRead * rowSize,
+            ballotCount - ballotsRead, candidateNames.length);
+        ballotsRead = ballotCount;
+        return store;
+    }
+
+    /**
+     * @return true if the ballots can be mapped with {@link #mapBallots()}
+     */
+    public boolean canMapBallots() {
+        return version == BinaryElectionFormat.VERSION;
+    }
+
+    /**
+     * @param index the position of an entry in the buffer, counting entries
+     * @return the entry
+     */
+    private int entry(int index) {
+        if (rankWidth == 1) {
+            return buffer.get(index) & 0xFF;
+        }
+        if (rankWidth == 2) {
+            return buffer.getShort(index * 2) & 0xFFFF;
+        }
+        return buffer.getInt(index * 4);
+    }
+
+    /**
+     * Closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Writes an election to a file in the binary format described in
+ * {@link BinaryElectionFormat}.  The candidates are written when the writer
+ * is created, the ballots are added a block at a time, and the number of
+ * ballots is filled in by {@link #finish()}.
+ *
+ * The election is written to a temporary file beside the one named, which
+ * only takes that name once it is finished.  A writer that is closed
+ * without being finished, such as when a ballot could not be read, deletes
+ * the temporary file, so a failed conversion never leaves a well-formed
+ * file holding only some of the ballots.
+ */
+public class BinaryElectionWriter implements Closeable {
+    // The number of bytes of ballots collected before they are written out.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // The name the file is given once it is finished.
+    private final Path target;
+
+    // The temporary file the election is written to.
+    private final Path temp;
+
+    // The file being written.
+    private final RandomAccessFile file;
+
+    // The number of candidates, which is also the length of every ballot.
+    private final int numCandidates;
+
+    // The number of bytes used to store each entry of a ballot.
+    private final int rankWidth;
+
+    // Checks the ballots before they are written.
+    private final BallotValidator validator;
+
+    // The preferences of the ballot being written.
+    private final int[] preferences;
+
+    // Where in the file the number of ballots is stored.
+    private final long countOffset;
+
+    // Ballots waiting to be written to the file.
+    private final ByteBuffer buffer;
+
+    // The number of ballots written so far.
+    private long ballotCount;
+
+    // Whether the file has been finished and given its name.
+    private boolean finished;
+
+    /**
+     * Starts a binary election file and writes the candidates to it.  An
+     * existing file with the same name is replaced when the new one is
+     * finished, and is left alone if it is not.
+     * @param filename the name of the file to write
+     * @param candidateNames the names of the candidates, in the order they
+     * appear on the ballots
+     * @throws IOException if the file cannot be written
+     */
+    public BinaryElectionWriter(String filename, String[] candidateNames)
+            throws IOException {
+        target = Paths.get(filename).toAbsolutePath();
+        temp = Files.createTempFile(target.getParent(),
+                                    target.getFileName().toString(), ".tmp");
+        try {
+            file = new RandomAccessFile(temp.toFile(), "rw");
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            numCandidates = candidateNames.length;
+            rankWidth = BinaryElectionFormat.rankWidth(numCandidates);
+
+            file.writeInt(BinaryElectionFormat.MAGIC);
+            file.writeInt(BinaryElectionFormat.VERSION);
+            file.writeInt(numCandidates);
+            for (String name : candidateNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                file.writeInt(bytes.length);
+                file.write(bytes);
+            }
+            file.writeInt(rankWidth);
+            countOffset = file.getFilePointer();
+            file.writeLong(0);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        int rowSize = Math.max(1, numCandidates * rankWidth);
+        buffer = ByteBuffer.allocate(Math.max(rowSize,
+                                              BUFFER_SIZE / rowSize * rowSize));
+        validator = new BallotValidator(numCandidates);
+        preferences = new int[numCandidates];
+    }
+
+    /**
+     * Adds a block of ballots to the file.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if a ballot is not valid, in which
+     * case none of the block is written
+     */
+    public void writeBallots(int[] rows, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (!validator.isValid(rows, i * numCandidates)) {
+                throw new IllegalArgumentException("Invalid ballot: " +
+                                                   validator.getErrorReason());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int start = i * numCandidates;
+            Arrays.fill(preferences, numCandidates);
+            for (int j = 0; j < numCandidates; j++) {
+                int rank = rows[start + j];
+                if (rank != 0) {
+                    preferences[rank - 1] = j;
+                }
+            }
+            for (int preference : preferences) {
+                if (buffer.remaining() < rankWidth) {
+                    flush();
+                }
+                if (rankWidth == 1) {
+                    buffer.put((byte) preference);
+                } else if (rankWidth == 2) {
+                    buffer.putShort((short) preference);
+                } else {
+                    buffer.putInt(preference);
+                }
+            }
+        }
+        ballotCount += count;
+    }
+
+    /**
+     * @return the number of ballots written so far
+     */
+    public long getBallotCount() {
+        return ballotCount;
+    }
+
+    /**
+     * Writes any remaining ballots and the number of ballots, closes the
+     * file and gives it its name, replacing any file already there.
+     * @throws IOException if the file cannot be written or renamed, in which
+     * case it is deleted
+     */
+    public void finish() throws IOException {
+        try {
+            flush();
+            file.seek(countOffset);
+            file.writeLong(ballotCount);
+            file.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the file.  If it was not finished, it is deleted along with
+     * the ballots written to it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            file.close();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the buffered ballots to the end of the file.
+     */
+    private void flush() throws IOException {
+        FileChannel channel = file.getChannel();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, channel.size());
+        }
+        buffer.clear();
+    }
+}
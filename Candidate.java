@@ -1,28 +1,40 @@
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A Candidate represents a person who is running for office.  A Candidate has 
- * a name, and can be eliminated from the election following the rules of 
- * ranked choice voting.
+ * a name and the pile of ballots on which they are the top choice, and can 
+ * be eliminated from the election following the rules of ranked choice 
+ * voting.  The number of votes for each candidate, and which candidates are
+ * eliminated, are kept by the {@link RankedChoiceCount}.
  */
 public class Candidate {
     // The candidate's name
     private final String name;
-    
-    // Whether the candidate is still in the election
-    private boolean eliminated = false;
 
-    // The ballots on which this candidate has the highest rank.
-    // If a candidate is eliminated, this list should be empty.
-    private List<Ballot> votes = new ArrayList<>();
+    // Where the candidate's piles of ballots get their chunks from.
+    private final LongPile.ChunkPool pool;
+
+    // The ballots on which this candidate has the highest rank, each held
+    // as the entry the count identifies it by.  If a candidate is 
+    // eliminated, this pile should be empty.
+    private LongPile votes;
 
     /**
      * Create a new candidate
      * @param name the candidate's name
      */
     public Candidate(String name) {
+        this(name, new LongPile.ChunkPool());
+    }
+
+    /**
+     * Create a new candidate whose ballots are kept in chunks shared with 
+     * other candidates.
+     * @param name the candidate's name
+     * @param pool where the candidate's piles of ballots get their chunks
+     */
+    public Candidate(String name, LongPile.ChunkPool pool) {
         this.name = name;
+        this.pool = pool;
+        this.votes = new LongPile(pool);
     }
 
     /**
@@ -34,34 +46,31 @@ public class Candidate {
 
     /**
      * Add a vote for this candidate.
-     * @param newBallot a ballot that has this candidate as its top choice
+     * @param ballot the entry for a ballot that has this candidate as its 
+     * top choice, which packs the ballot's index with the preference that
+     * names the candidate
      */
-    public void addBallot(Ballot newBallot) {
-        votes.add(newBallot);
+    public void addBallot(long ballot) {
+        votes.add(ballot);
     }
 
     /**
-     * @return the number of ballots for which this candidate is the top choice
+     * Add a pile of votes for this candidate, leaving the pile empty.
+     * @param ballots the entries for ballots that have this candidate as 
+     * their top choice
      */
-    public int getVotes() {
-        return votes.size();
+    public void addBallots(LongPile ballots) {
+        votes.addAll(ballots);
     }
     
     /**
      * Eliminate this candidate from the election.
-     * @return the ballots for which this candidate was the top choice.
+     * @return the entries for the ballots for which this candidate was the 
+     * top choice.  The caller should recycle the pile once it is done with it.
      */
-    public List<Ballot> eliminate() {
-        List<Ballot> returnValue = votes;
-        votes = new ArrayList<>();
-        eliminated = true;
+    public LongPile eliminate() {
+        LongPile returnValue = votes;
+        votes = new LongPile(pool);
         return returnValue;
     }
-    
-    /**
-     * @return true if this candidate has been eliminated from the election.
-     */
-    public boolean isEliminated() {
-        return eliminated;
-    }
 }
@@ -0,0 +1,137 @@
+import java.util.Arrays;
+
+/**
+ * A min-heap of the candidates still in an election, ordered by their 
+ * number of votes, so the candidate to eliminate can be found in O(log n) 
+ * time instead of by scanning every candidate.  Candidates with the same 
+ * number of votes are ordered by their position on the ballot.
+ *
+ * The heap reads the votes from the election's tally, and keeps track of 
+ * where each candidate is in the heap so that a candidate can be moved when
+ * their votes go up.
+ */
+public class CandidateHeap {
+    // The number of votes for each candidate, shared with the election.
+    private final long[] tally;
+
+    // The candidates in the heap, with the fewest votes first.
+    private final int[] heap;
+
+    // The position of each candidate in the heap, or -1 if the candidate is
+    // not in the heap.
+    private final int[] position;
+
+    // The number of candidates in the heap.
+    private int size;
+
+    /**
+     * Creates an empty heap.
+     * @param tally the number of votes for each candidate.  The heap must be
+     * told when a candidate's votes change.
+     */
+    public CandidateHeap(long[] tally) {
+        this.tally = tally;
+        this.heap = new int[tally.length];
+        this.position = new int[tally.length];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Adds a candidate to the heap.
+     * @param candidate the position of the candidate on the ballot
+     */
+    public void add(int candidate) {
+        heap[size] = candidate;
+        position[candidate] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * @return the candidate with the fewest votes, without removing them
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Removes the candidate with the fewest votes.
+     * @return the candidate removed
+     */
+    public int poll() {
+        int candidate = heap[0];
+        size--;
+        position[candidate] = -1;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return candidate;
+    }
+
+    /**
+     * Puts the heap back in order after the votes of any of the candidates
+     * in it have gone up.  The candidates are sifted down from the last
+     * parent to the root, so each one is compared only with children whose
+     * subtrees are already in order.  Sifting the candidates one at a time
+     * in any other order can leave a candidate with fewer votes below one
+     * with more.
+     */
+    public void heapify() {
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return the number of candidates in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    private void siftUp(int index) {
+        int candidate = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!comesBefore(candidate, heap[parent])) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(candidate, index);
+    }
+
+    private void siftDown(int index) {
+        int candidate = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && comesBefore(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!comesBefore(heap[child], candidate)) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(candidate, index);
+    }
+
+    private void place(int candidate, int index) {
+        heap[index] = candidate;
+        position[candidate] = index;
+    }
+
+    /**
+     * @return true if candidate a should be eliminated before candidate b
+     */
+    private boolean comesBefore(int a, int b) {
+        return tally[a] < tally[b] || (tally[a] == tally[b] && a < b);
+    }
+}
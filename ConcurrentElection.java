@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An election that takes ballots from many threads at once, such as the
+ * scanners feeding a live count.  The ballots are added and counted exactly
+ * as in an {@link Election}, through the methods of
+ * {@link RankedChoiceElection}, but the methods that add ballots may be
+ * called from any number of threads, and so may {@link #selectWinner()}
+ * while ballots are still coming in.  The candidates must all be added
+ * before any ballots.
+ *
+ * No lock is shared by every thread adding ballots.  Ballots are added to
+ * one of several stripes, each with its own lock, and a thread that finds
+ * its stripe busy moves on to the next one rather than waiting, much as a
+ * {@link LongAdder} spreads its updates over several cells.  Each stripe
+ * collapses identical ballots with a {@link RankingAggregator} of its own
+ * when there are few enough candidates, and otherwise keeps the ranks in
+ * blocks.  A count drains the stripes, one at a time, into a single
+ * {@link BallotStore} and counts that in a {@link Tabulation}, while new
+ * ballots keep arriving in the stripes.
+ *
+ * The number of voters and the first-choice votes for each candidate are
+ * kept in {@link LongAdder}s as the ballots arrive, so they can be read at
+ * any time without locking anything or waiting for a count.
+ */
+public class ConcurrentElection extends RankedChoiceElection {
+    // The most stripes an election is split into.
+    private static final int MAX_STRIPES = 64;
+
+    // The ballots drained from the stripes by the counts so far.
+    private final BallotStore ballots;
+
+    // Where new ballots are added.  The number of stripes is a power of 2.
+    private final Stripe[] stripes;
+
+    // The number of voters whose ballots have been added.
+    private final LongAdder voters = new LongAdder();
+
+    // The number of voters whose first choice is each candidate.
+    private final LongAdder[] firstChoices;
+
+    /**
+     * Create a new election with a stripe for each processor.  Initially,
+     * there are no candidates or votes.
+     * @param numCandidates the number of candidates in the election.
+     */
+    public ConcurrentElection (int numCandidates) {
+        this(numCandidates, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new election.  Initially, there are no candidates or votes.
+     * @param numCandidates the number of candidates in the election.
+     * @param threads the number of threads expected to add ballots at once,
+     * which is rounded up to a power of 2 to give the number of stripes
+     */
+    public ConcurrentElection (int numCandidates, int threads) {
+        super(numCandidates);
+        this.ballots = PackedBallotStore.fitsInLong(numCandidates) ?
+            new PackedBallotStore(numCandidates) :
+            new BallotArena(numCandidates);
+        int numStripes = 1;
+        while (numStripes < threads && numStripes < MAX_STRIPES) {
+            numStripes <<= 1;
+        }
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe(numCandidates);
+        }
+        this.firstChoices = new LongAdder[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            firstChoices[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Checks and keeps a block of ballots.  The whole block goes to a single
+     * stripe, so the stripe is locked once for the block and the counters
+     * are updated once for each candidate.  A single ballot, as added by
+     * {@link #addBallot(int[])}, updates only its first choice's counter.
+     * This may be called from several threads at once.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @param weight the number of voters who cast each of the ballots
+     * @throws IllegalArgumentException if a ballot is not valid.  The
+     * ballots before it in the block are still kept.
+     */
+    @Override
+    protected void addRows(int[] rows, int count, long weight) {
+        if (count == 1) {
+            addRow(rows, weight);
+            return;
+        }
+        int numCandidates = getCandidateCount();
+        long[] votes = new long[numCandidates];
+        int added = 0;
+        Stripe stripe = lockStripe();
+        try {
+            for (; added < count; added++) {
+                int start = added * numCandidates;
+                checkBallot(stripe.validator, rows, start);
+                stripe.add(rows, start, weight);
+                votes[topCandidate(rows, start)] += weight;
+            }
+        } finally {
+            stripe.lock.unlock();
+            voters.add(added * weight);
+            for (int c = 0; c < numCandidates; c++) {
+                if (votes[c] > 0) {
+                    firstChoices[c].add(votes[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks and keeps a single ballot, without the per-candidate counts a
+     * block needs.
+     * @param ranks the array holding the ballot
+     * @param weight the number of voters who cast the ballot
+     * @throws IllegalArgumentException if the ballot is not valid.
+     */
+    private void addRow(int[] ranks, long weight) {
+        Stripe stripe = lockStripe();
+        try {
+            checkBallot(stripe.validator, ranks, 0);
+            stripe.add(ranks, 0, weight);
+        } finally {
+            stripe.lock.unlock();
+        }
+        voters.add(weight);
+        firstChoices[topCandidate(ranks, 0)].add(weight);
+    }
+
+    /**
+     * @return the number of voters whose ballots have been added so far.
+     * Ballots being added while this is called may or may not be included.
+     */
+    public long getVoterCount() {
+        return voters.sum();
+    }
+
+    /**
+     * @param candidate the position of a candidate on the ballots
+     * @return the number of voters so far whose first choice is the
+     * candidate.  Ballots being added while this is called may or may not be
+     * included.
+     */
+    public long getFirstChoiceVotes(int candidate) {
+        return firstChoices[candidate].sum();
+    }
+
+    /**
+     * @return the number of voters whose ballots were exhausted in the most
+     * recent count, because every candidate they ranked was eliminated.
+     */
+    @Override
+    public synchronized long getExhaustedVotes() {
+        return super.getExhaustedVotes();
+    }
+
+    /**
+     * Chooses whether candidates who are mathematically defeated are all
+     * eliminated in a single round, as described in
+     * {@link RankedChoiceElection#setBatchElimination(boolean)}.  A count
+     * already running keeps the choice it started with.
+     * @param batch true to eliminate defeated candidates together, false to
+     * eliminate one candidate per round
+     */
+    @Override
+    public synchronized void setBatchElimination(boolean batch) {
+        super.setBatchElimination(batch);
+    }
+
+    /**
+     * Apply the ranked choice voting algorithm to identify the winner.
+     * Every ballot whose addition finished before this was called is
+     * counted, and some that are added during the call may be.  The stripes
+     * are drained one at a time, so threads adding ballots only wait while
+     * their stripe is drained, and not while the ballots are counted.  One
+     * count runs at a time.
+     *
+     * @return If there is a winner, this method returns a list containing just
+     * the winner's name is returned.  If there is a tie, this method returns a
+     * list containing the names of the tied candidates.
+     */
+    @Override
+    public synchronized List<String> selectWinner () {
+        return super.selectWinner();
+    }
+
+    /**
+     * Drains the stripes into the store, one at a time, and starts a count
+     * of all the ballots drained so far.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round
+     * @return the count
+     */
+    @Override
+    protected RankedChoiceCount startCount(String[] names,
+                                           boolean batchElimination) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.drainTo(ballots);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return new Tabulation (names, ballots, batchElimination);
+    }
+
+    /**
+     * Locks a stripe for the current thread to add ballots to.  Each thread
+     * starts at a stripe of its own, picked from its hash code, and tries
+     * the stripes after it in turn if that one is busy.  Only if every
+     * stripe is busy does it wait, for its own stripe.
+     * @return the stripe, locked by the current thread
+     */
+    private Stripe lockStripe() {
+        int mask = stripes.length - 1;
+        int home = Thread.currentThread().hashCode() * 0x9E3779B9;
+        home ^= home >>> 16;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(home + i) & mask];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        Stripe stripe = stripes[home & mask];
+        stripe.lock.lock();
+        return stripe;
+    }
+
+    /**
+     * @param ranks the array holding a valid ballot
+     * @param offset the position in the array of the first candidate's rank
+     * @return the position of the voter's first choice
+     */
+    private int topCandidate(int[] ranks, int offset) {
+        int c = 0;
+        while (ranks[offset + c] != 1) {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * The ballots added to one stripe since it was last drained, with the
+     * lock that guards them.
+     */
+    private static class Stripe {
+        // The number of ranks kept in each block.
+        private static final int BLOCK_RANKS = 1 << 14;
+
+        // Held while ballots are added to the stripe or drained from it.
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Checks the ballots added to the stripe.
+        private final BallotValidator validator;
+
+        // Counts the voters for each ranking, or null if there are too many
+        // candidates for aggregating the ballots to pay.
+        private final RankingAggregator aggregator;
+
+        // The number of ranks on each ballot.
+        private final int numCandidates;
+
+        // The number of ballots in each block.
+        private final int ballotsPerBlock;
+
+        // The ranks of the ballots, when they are not aggregated, and the
+        // number of voters who cast each one.
+        private final List<int[]> blocks = new ArrayList<>();
+        private final List<long[]> weights = new ArrayList<>();
+
+        // The number of ballots in the last block.
+        private int count;
+
+        Stripe(int numCandidates) {
+            this.validator = new BallotValidator(numCandidates);
+            this.aggregator = RankingAggregator.isWorthwhile(numCandidates) ?
+                new RankingAggregator(numCandidates) : null;
+            this.numCandidates = numCandidates;
+            this.ballotsPerBlock =
+                Math.max(1, BLOCK_RANKS / Math.max(1, numCandidates));
+            this.count = ballotsPerBlock;
+        }
+
+        /**
+         * Adds a ballot to the stripe.
+         * @param ranks the array holding a valid ballot
+         * @param offset the position in the array of the first candidate's
+         * rank
+         * @param weight the number of voters who cast the ballot
+         */
+        void add(int[] ranks, int offset, long weight) {
+            if (aggregator != null) {
+                aggregator.add(ranks, offset, weight);
+                return;
+            }
+            if (count == ballotsPerBlock) {
+                blocks.add(new int[ballotsPerBlock * numCandidates]);
+                weights.add(new long[ballotsPerBlock]);
+                count = 0;
+            }
+            System.arraycopy(ranks, offset, blocks.get(blocks.size() - 1),
+                             count * numCandidates, numCandidates);
+            weights.get(weights.size() - 1)[count] = weight;
+            count++;
+        }
+
+        /**
+         * Adds the ballots in the stripe to a store, in the order they were
+         * added, and empties the stripe.
+         * @param store the store to add the ballots to
+         */
+        void drainTo(BallotStore store) {
+            if (aggregator != null) {
+                if (aggregator.size() > 0) {
+                    aggregator.drainTo(store);
+                }
+                return;
+            }
+            for (int b = 0; b < blocks.size(); b++) {
+                int[] block = blocks.get(b);
+                long[] blockWeights = weights.get(b);
+                int n = b == blocks.size() - 1 ? count : ballotsPerBlock;
+                for (int i = 0; i < n; i++) {
+                    store.add(block, i * numCandidates, blockWeights[i]);
+                }
+            }
+            blocks.clear();
+            weights.clear();
+            count = ballotsPerBlock;
+        }
+    }
+}
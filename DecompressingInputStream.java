@@ -0,0 +1,206 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the decompressed contents of a gzip file, or of the first file in a
+ * zip archive.  The data is inflated on a separate thread, which hands it
+ * over in chunks through a small bounded pool of buffers.  Inflating the
+ * archive and parsing the ballots therefore overlap, and no decompressed
+ * copy of the archive is ever written to disk.
+ */
+public class DecompressingInputStream extends InputStream {
+    // The size of each chunk of decompressed data.
+    private static final int CHUNK_SIZE = 1 << 18;
+
+    // The number of chunks shared between the two threads.
+    private static final int CHUNKS = 8;
+
+    // Chunks waiting to be filled by the inflating thread.
+    private final BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(CHUNKS);
+
+    // Chunks waiting to be read, in the order they were filled.
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(CHUNKS);
+
+    // The compressed data.
+    private final InputStream compressed;
+
+    // The thread inflating the data.
+    private final Thread inflater;
+
+    // The problem the inflating thread ran into, if any.
+    private volatile IOException failure;
+
+    // The chunk currently being read, and the next byte to read from it.
+    private Chunk current;
+    private int position;
+
+    // True once the end of the data has been reached.
+    private boolean finished;
+
+    /**
+     * Opens a compressed file and starts inflating it.
+     * @param filename the name of a file ending in .gz or .zip
+     * @throws IOException if the file cannot be opened, is not a gzip file
+     * or zip archive, or is a zip archive with no files in it
+     */
+    public DecompressingInputStream(String filename) throws IOException {
+        compressed = open(filename);
+        for (int i = 0; i < CHUNKS; i++) {
+            empty.add(new Chunk());
+        }
+        inflater = new Thread(this::inflate, "Inflater for " + filename);
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    /**
+     * @param filename the name of a file
+     * @return true if the file name ends in .gz or .zip
+     */
+    public static boolean isCompressed(String filename) {
+        String lower = filename.toLowerCase();
+        return lower.endsWith(".gz") || lower.endsWith(".zip");
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current.bytes, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Stops the inflating thread and closes the compressed file.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        inflater.interrupt();
+        compressed.close();
+    }
+
+    /**
+     * Makes sure the current chunk has bytes left to read, waiting for the
+     * inflating thread to fill the next chunk if it does not.
+     * @return false if the end of the data has been reached
+     */
+    private boolean nextChunk() throws IOException {
+        while (!finished && (current == null || position == current.length)) {
+            if (current != null) {
+                empty.add(current);
+            }
+            try {
+                current = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while " +
+                                                 "decompressing");
+            }
+            position = 0;
+            if (current.length < 0) {
+                finished = true;
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+        return !finished;
+    }
+
+    /**
+     * Fills chunks with decompressed data until the end of the data, then
+     * passes on a chunk marking the end.  Runs on the inflating thread.
+     */
+    private void inflate() {
+        try {
+            int read = 0;
+            while (read >= 0) {
+                Chunk chunk = empty.take();
+                chunk.length = 0;
+                while (chunk.length < CHUNK_SIZE) {
+                    read = compressed.read(chunk.bytes, chunk.length,
+                                           CHUNK_SIZE - chunk.length);
+                    if (read < 0) {
+                        break;
+                    }
+                    chunk.length += read;
+                }
+                if (chunk.length > 0) {
+                    full.put(chunk);
+                } else {
+                    empty.add(chunk);
+                }
+            }
+            Chunk end = empty.take();
+            end.length = -1;
+            full.put(end);
+        } catch (InterruptedException e) {
+            // The reader has closed the stream.
+        } catch (IOException e) {
+            failure = e;
+            Chunk end = new Chunk();
+            end.length = -1;
+            full.offer(end);
+        }
+    }
+
+    /**
+     * Opens the compressed file and positions it at the data to inflate.
+     * @param filename the name of a file ending in .gz or .zip
+     * @return the stream of decompressed data
+     */
+    private static InputStream open(String filename) throws IOException {
+        InputStream file =
+            new BufferedInputStream(new FileInputStream(filename), CHUNK_SIZE);
+        try {
+            if (filename.toLowerCase().endsWith(".gz")) {
+                return new GZIPInputStream(file, CHUNK_SIZE);
+            }
+            ZipInputStream zip = new ZipInputStream(file);
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            if (entry == null) {
+                throw new IOException(filename + " does not contain any " +
+                                      "files");
+            }
+            return zip;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A buffer of decompressed data passed between the two threads.
+     */
+    private static class Chunk {
+        // The decompressed data.
+        private final byte[] bytes = new byte[CHUNK_SIZE];
+
+        // The number of bytes of data, or -1 for the end of the data.
+        private int length;
+    }
+}
@@ -1,7 +1,3 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 /**
  * An Election consists of the candidates running for office, the ballots that 
  * have been cast, and the total number of voters.  This class implements the 
@@ -9,27 +5,50 @@ import java.util.List;
  * 
  * Ranked choice voting uses this process:
  * <ol>
- * <li>Rather than vote for a single candidate, a voter ranks all the 
+ * <li>Rather than vote for a single candidate, a voter ranks the 
  * candidates.  For example, if 3 candidates are running on the ballot, a voter
- * identifies their first choice, second choice, and third choice.
+ * identifies their first choice, second choice, and third choice.  A voter 
+ * may also rank only their top few choices.
  * <li>The first-choice votes are tallied.If any candidate receives &gt; 50% 
  * of the votes, that candidate wins.
  * <li>If no candidate wins &gt; 50% of the votes, the candidate(s) with the 
  * lowest number of votes is(are) eliminated.  For each ballot in which an
  * eliminated candidate is the first choice, the 2nd ranked candidate is now
- * the top choice for that ballot.
+ * the top choice for that ballot.  A ballot with no candidates left that are
+ * still in the election is exhausted, and no longer counts.
  * <li>Steps 2 &amp; 3 are repeated until a candidate wins, or all remaining 
  * candidates have exactly the same number of votes.  In the case of a tie, 
  * there would be a separate election involving just the tied candidates.
  * </ol>
+ * 
+ * When there are only a handful of candidates, identical ballots are 
+ * collapsed into one ballot weighted by the number of voters who cast it as
+ * they are added, so the work of each round depends on the number of 
+ * different rankings rather than the number of voters.
+ * 
+ * The ballots are kept in a {@link BallotStore}, and each candidate holds the
+ * indexes of their ballots, so no object is created for each voter.  By 
+ * default, ballots small enough to fit in a long are bit-packed in a 
+ * {@link PackedBallotStore}, so a small race stays in cache while it is 
+ * counted, and larger ballots go in a {@link BallotArena}.
+ * 
+ * The ballots never change once they are added.  Each call to 
+ * {@link #selectWinner()} counts them afresh in a new {@link Tabulation}, 
+ * which holds the candidates who have been eliminated and where each ballot
+ * stands, so an election can be counted as many times as needed.  Adding 
+ * the ballots and running the rounds are shared with the other elections
+ * through {@link RankedChoiceElection}.
  */
-public class Election {
-    // All candidates that were in the election initially.  If a candidate is 
-    // eliminated, they will still stay in this array.
-    private final Candidate[] candidates;
+public class Election extends RankedChoiceElection {
+    // All the ballots in the election.
+    private final BallotStore ballots;
+    
+    // Checks that ballots are permutations of the ranks.
+    private final BallotValidator validator;
     
-    // The next slot in the candidates array to fill.
-    private int nextCandidate;
+    // Counts the voters for each ranking until the election is run, or null
+    // if there are too many candidates for aggregating the ballots to pay.
+    private final RankingAggregator aggregator;
     
     /**
      * Create a new Election object.  Initially, there are no candidates or 
@@ -37,254 +56,72 @@ public class Election {
      * @param numCandidates the number of candidates in the election.
      */
     public Election (int numCandidates) {
-        this.candidates = new Candidate[numCandidates];
+        this(numCandidates, PackedBallotStore.fitsInLong(numCandidates) ?
+             new PackedBallotStore(numCandidates) : 
+             new BallotArena(numCandidates));
     }
     
     /**
-     * Adds a candidate to the election
-     * @param name the candidate's name
+     * Create a new Election object whose ballots are kept in the given store.
+     * The store may already hold ballots, which count along with any ballots
+     * added later.  If the store is read-only, such as one holding ballots 
+     * mapped from a binary election file, no more ballots can be added, and
+     * trying to throws an IllegalStateException.
+     * @param numCandidates the number of candidates in the election.
+     * @param ballots where to keep the ballots
      */
-    public void addCandidate (String name) {
-        candidates[nextCandidate] = new Candidate (name);
-        nextCandidate++;
+    public Election (int numCandidates, BallotStore ballots) {
+        super(numCandidates);
+        this.ballots = ballots;
+        this.validator = new BallotValidator(numCandidates);
+        this.aggregator = RankingAggregator.isWorthwhile(numCandidates) ?
+            new RankingAggregator(numCandidates) : null;
     }
     
     /**
-     * Adds a completed ballot to the election.
-     * @param ranks A correctly formulated ballot will have exactly 1 
-     * entry with a rank of 1, exactly one entry with a rank of 2, etc.  If 
-     * there are n candidates on the ballot, the values in the rank array 
-     * passed to the constructor will be some permutation of the numbers 1 to 
-     * n.
-     * @throws IllegalArgumentException if the ballot is not valid.
+     * Checks a block of ballots and adds them to the aggregator, or to the 
+     * store if there are too many candidates for aggregating them to pay.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @param weight the number of voters who cast each of the ballots
+     * @throws IllegalArgumentException if a ballot is not valid.
+     * @throws IllegalStateException if the store is read-only
      */
-    public void addBallot (int[] ranks) {
-        if (!isBallotValid(ranks)) {
-            throw new IllegalArgumentException("Invalid ballot");
+    @Override
+    protected void addRows (int[] rows, int count, long weight) {
+        if (count > 0 && ballots.isReadOnly()) {
+            throw new IllegalStateException("Ballots cannot be added to an " +
+                                            "election whose ballots are " +
+                                            "read-only");
         }
-        Ballot newBallot = new Ballot(ranks);
-        assignBallotToCandidate(newBallot);
-    }
-
-    /**
-     * Checks that the ballot is the right length and contains a permutation 
-     * of the numbers 1 to n, where n is the number of candidates.
-     * @param ranks the ballot to check
-     * @return true if the ballot is valid.
-     */
-    private boolean isBallotValid(int[] ranks) {
-        if (ranks.length != candidates.length) {
-            return false;
-        }
-        int[] sortedRanks = Arrays.copyOf(ranks, ranks.length);
-        Arrays.sort(sortedRanks);
-        for (int i = 0; i < sortedRanks.length; i++) {
-            if (sortedRanks[i] != i + 1) {
-                return false;
+        int numCandidates = getCandidateCount();
+        for (int i = 0; i < count; i++) {
+            int start = i * numCandidates;
+            checkBallot(validator, rows, start);
+            if (aggregator != null) {
+                aggregator.add(rows, start, weight);
+                continue;
             }
+            ballots.add(rows, start, weight);
         }
-        return true;
-    }
-
-    /**
-     * Determines which candidate is the top choice on the ballot and gives the
-     * ballot to that candidate.
-     * @param newBallot a ballot that is not currently assigned to a candidate
-     */
-    private void assignBallotToCandidate(Ballot newBallot) {
-        int candidate = newBallot.getTopCandidate();
-        candidates[candidate].addBallot(newBallot);
-    }
-    
-    /**
-     * Finds the position of the candidate with lowest total votes
-     * @param voteCount an arrayList with total first preference votes for each candidate
-     * @return position of the candidate with the lowest top choice votes
-     */
-    private int smallestTotalCandidate(List<Integer> voteCount) {
-    	int min = voteCount.get(0);
-    	int position = 0;
-    	for(int i = 1; i < voteCount.size(); i++) {
-    		if(voteCount.get(i) < min) {
-    			min = voteCount.get(i);
-    			position = i;
-    		}
-    	}
-    	return position;
-    }
-    
-    /**
-     * Finds the position of the candidate with the higher total votes
-     * @param voteCount an arrayList with total first preference votes for each candidate
-     * @return position of the candidate with the largest top choice votes
-     */
-    private int largestTotalCandidate(List<Integer> voteCount) {
-    	int max = voteCount.get(0);
-    	int position = 0;
-    	for(int i = 1; i < voteCount.size(); i++) {
-    		if(voteCount.get(i) > max) {
-    			max = voteCount.get(i);
-    			position = i;
-    		}
-    	}
-    	return position;
-    }
-    
-    /**
-     * finds the largest number in the array list
-     * @param voteCount an arrayList with total first preference votes for each candidate
-     * @return largest number in the array list
-     */
-    private int largestTotal(List<Integer> voteCount) {
-    	int max = voteCount.get(0);
-    	for(int i = 1; i < voteCount.size(); i++) {
-    		if(voteCount.get(i) > max) {
-    			max = voteCount.get(i);
-    		}
-    	}
-    	return max;
-    }
-    
-    /**
-     * creates an array list with total number of first preference votes for each candidate 
-     * @param names array with names of all candidates
-     * @return array list with total top choice votes for every candidate
-     */
-    private ArrayList<Integer> totalVotes(Candidate[] names){
-    	ArrayList<Integer> topVoteCount = new ArrayList<>();
-    	for(Candidate candidate: names) {
-    		topVoteCount.add(candidate.getVotes());
-    	}
-    	return topVoteCount;
-    }
-    
-    /**
-     * Calculates the number of votes a candidate needs to win
-     * @param voteCount an arrayList with total first preference votes for each candidate
-     * @return number votes needed to win
-     */
-    private int votesToWin(List<Integer> voteCount) {
-    	int total = 0;
-    	int toWin = 0;
-    	for(int i = 0; i < voteCount.size(); i++) {
-    		total += voteCount.get(i);
-    	}toWin = total / 2 + 1;
-    	
-    	return toWin;
-    }
-
-    /**
-     * check if there are candidates with tied number of votes 
-     * @param votes
-     * @return boolean indicating whether the candidates are tied or not
-     */
-    private boolean checkIfTied(List<Integer> voteCount) {
-    	boolean tied = false;
-    	ArrayList<Integer> tiedCandidates = new ArrayList<>();
-    	ArrayList<Integer> notTiedCandidates = new ArrayList<>();
-    	int largestTotalVotes = largestTotal(voteCount);
-    	
-    	//add all the tied votes to the tiedVotes array list
-    	for(int vote : voteCount) {
-    		if(vote == voteCount.get(0)) {
-    			tiedCandidates.add(vote);
-    		} 
-    	}
-    	//if the tied votes array list is equal to the given array list
-    	//all the candidates have equal number of top-choice votes
-    	if(tiedCandidates.size() == voteCount.size()) {
-    		tied = true;
-    	//if the tied votes array list is not equal to the given array list 
-    	}else{
-    		for(int num : voteCount) {
-    			//add tied votes to the tied votes array list
-    	    	if(num == largestTotalVotes) {
-    	    		tiedCandidates.add(num);
-    	    	//add not tied votes to the not tied votes array list
-    	    	} else {
-    	    		notTiedCandidates.add(num);
-    	   		}
-    	   	}
-    		//check if the votes have been allocated
-    	   	for(int num : notTiedCandidates) {
-    	   		if(num == 0) {
-        			tied = true;
-   	    		}
-   	    	}
-   		}
-   	return tied;
     }
-    	
 
     /**
-     * gets the candidate at a specific position
-     * @param position of the candidate needed
-     * @return candidate at a given position
-     */
-    private Candidate getCandidate(int position) {
-    	Candidate candidate = candidates[position];
-    	return candidate;
-    }
-    
-    /**
-     * if there is no candidate with majority vote,
-     * eliminates the candidate with the lowest amount of first preference votes
-     * and adds a ballot to candidates that have second preference 
-     * in the ballots an eliminated candidate is a top choice
-     * 
-     * @param voteCount an arrayList with total first preference votes for each candidate 
-     */
-    private void allocateVote(List<Integer> voteCount) {
-    	int secondPreferencePosition = 0;
-    	//position of candidate with least number of top choice votes
-    	int eliminatePosition = smallestTotalCandidate(voteCount);
-    	Candidate candidateName = getCandidate(eliminatePosition);
-    	//eliminates a candidate
-    	//and returns all of the ballots for which this candidate was the top choice
-    	List<Ballot> toAllocate = candidateName.eliminate();
-    	for(int i = 0; i < toAllocate.size(); i++) {
-    		toAllocate.get(i).eliminateCandidate(eliminatePosition);
-    		Ballot ballot = toAllocate.get(i);
-    		secondPreferencePosition = ballot.getTopCandidate();
-    		Candidate secondCandidate = getCandidate(secondPreferencePosition);
-    		secondCandidate.addBallot(ballot);
-    	}
-    }
-    
-    /**
-     * Apply the ranked choice voting algorithm to identify the winner.
-     * 
-     * @return If there is a winner, this method returns a list containing just
-     * the winner's name is returned.  If there is a tie, this method returns a
-     * list containing the names of the tied candidates.
+     * Moves the ballots counted by the aggregator into the store, then
+     * starts a count of the store in a new {@link Tabulation}.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round
+     * @return the count
      */
-    public List<String> selectWinner () {
-    	ArrayList<String> winner= new ArrayList<String>();
-    	ArrayList<Integer> voteCounts = totalVotes(candidates);
-    	String name;
-    	Candidate candidate;
-    	int mostVotePosition = largestTotalCandidate(voteCounts);
-    	 
-    	//if a candidate has a majority vote, that candidate is added to the winner array list
-    	if( largestTotal(voteCounts)>= votesToWin(voteCounts)) {
-			candidate = getCandidate(mostVotePosition);
-			name = candidate.getName();
-			winner.add(name);
-			return winner;
-			// if candidates are tied, add all of tied candidates to the winner list
-    	} else if(checkIfTied(voteCounts)){
-    		for(int i = 0; i < voteCounts.size(); i++) {
-    			if(voteCounts.get(i) == largestTotal(voteCounts)) {
-    				name = getCandidate(i).getName();
-    				winner.add(name);
-    			}
-    		}
-    		return winner;
-    		//if no candidate has a majority vote, votes are allocated and selectWinner is recursively called 
-		} else {
-			allocateVote(voteCounts);
-			return selectWinner();
-		}
-    	
+    @Override
+    protected RankedChoiceCount startCount (String[] names, 
+                                            boolean batchElimination) {
+        if (aggregator != null && aggregator.size() > 0) {
+            aggregator.drainTo(ballots);
+        }
+        return new Tabulation (names, ballots, batchElimination);
     }
-}
\ No newline at end of file
+}
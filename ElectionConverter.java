@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.InputMismatchException;
+
+/**
+ * Converts an election file in the text format described in
+ * {@link RankedChoiceVoting} to the binary format described in
+ * {@link BinaryElectionFormat}.  The binary file can then be given to
+ * RankedChoiceVoting in place of the text file, which saves parsing the
+ * ballots again each time the election is tabulated.  If the text file
+ * cannot be converted, no binary file is written.
+ */
+public class ElectionConverter {
+    // The number of ballots converted at once.
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Converts a text election file to a binary election file.
+     * @param args There should be two arguments, the name of the text file to
+     * read and the name of the binary file to write.  The text file may be
+     * compressed, as described in {@link RankedChoiceVoting}.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println ("Usage: java ElectionConverter " +
+                                "<text election file> <binary election file>");
+            return;
+        }
+
+        String textFile = args[0];
+        String binaryFile = args[1];
+        try (BallotSource in = RankedChoiceVoting.openBallotSource(textFile);
+             BinaryElectionWriter out =
+                 new BinaryElectionWriter (binaryFile, in.getCandidateNames())) {
+            int numCandidates = in.getCandidateNames().length;
+            int[] block = new int[Math.max(1, numCandidates) * BLOCK_SIZE];
+            int count;
+            while ((count = in.read(block)) > 0) {
+                out.writeBallots(block, count);
+            }
+            out.finish();
+            System.out.println ("Wrote " + out.getBallotCount() +
+                                " ballots to " + binaryFile);
+        } catch (InputMismatchException e) {
+            System.out.println("The file should start with the number of " +
+                               "candidates.");
+        } catch (BallotFormatException e) {
+            System.out.println (e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Could not convert " + textFile + ": " +
+                                e.getMessage());
+        } catch (NoSuchFileException e) {
+            if (textFile.equals(e.getFile())) {
+                System.out.println ("Election file " + textFile +
+                                    " was not found.");
+            } else {
+                System.out.println ("Could not write " + binaryFile +
+                                    ": its directory was not found.");
+            }
+        } catch (IOException e) {
+            System.out.println ("Could not convert " + textFile + ": " +
+                                e.getMessage());
+        }
+    }
+}
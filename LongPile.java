@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * A pile of longs, such as the indexes of the ballots held by a candidate.
+ * The values are kept in fixed-size chunks, so adding a value never copies 
+ * the values already in the pile, and a pile can hold more values than fit 
+ * in any one array.  Chunks come from a {@link ChunkPool} 
+ * shared by the piles of an election, and go back to it when the pile is 
+ * recycled, so the chunks of an eliminated candidate's pile are reused by
+ * the piles their ballots move to instead of being left for the garbage 
+ * collector.
+ */
+public class LongPile {
+    // The number of bits of an index that hold the position in a chunk.
+    private static final int CHUNK_SHIFT = 12;
+
+    // The number of values in each chunk.
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // Where chunks come from and go back to.
+    private final ChunkPool pool;
+
+    // The chunks holding the values.  Only the last one may be partly full.
+    private long[][] chunks = new long[4][];
+
+    // The number of chunks in use.
+    private int chunkCount;
+
+    // The number of values in the pile.
+    private long size;
+
+    /**
+     * Creates an empty pile.
+     * @param pool where the pile gets its chunks from
+     */
+    public LongPile(ChunkPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a value to the pile.
+     * @param value the value to add
+     */
+    public void add(long value) {
+        int offset = (int) size & (CHUNK_SIZE - 1);
+        if (offset == 0) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount] = pool.take();
+            chunkCount++;
+        }
+        chunks[chunkCount - 1][offset] = value;
+        size++;
+    }
+
+    /**
+     * Moves all the values of another pile into this one, leaving the other
+     * pile empty.  The full chunks of the other pile are taken over as they
+     * are and only the values in its last chunk are copied, so the values 
+     * of the two piles are not kept in the order they were added.
+     * @param other the pile to empty into this one.  Its chunks may come 
+     * from a different pool.
+     */
+    public void addAll(LongPile other) {
+        int full = (int) (other.size >>> CHUNK_SHIFT);
+        int rest = (int) other.size & (CHUNK_SIZE - 1);
+        if (full > 0) {
+            if (chunkCount + full > chunks.length) {
+                chunks = Arrays.copyOf(chunks, 
+                    Math.max(chunks.length * 2, chunkCount + full));
+            }
+            // The full chunks go in front of this pile's partly full chunk,
+            // so that only the last chunk is partly full.
+            int partial = (int) size & (CHUNK_SIZE - 1);
+            long[] last = partial == 0 ? null : chunks[chunkCount - 1];
+            int position = partial == 0 ? chunkCount : chunkCount - 1;
+            System.arraycopy(other.chunks, 0, chunks, position, full);
+            chunkCount += full;
+            if (last != null) {
+                chunks[chunkCount - 1] = last;
+            }
+            size += (long) full << CHUNK_SHIFT;
+        }
+        if (rest > 0) {
+            long[] chunk = other.chunks[full];
+            for (int i = 0; i < rest; i++) {
+                add(chunk[i]);
+            }
+            pool.give(chunk);
+        }
+        Arrays.fill(other.chunks, 0, other.chunkCount, null);
+        other.chunkCount = 0;
+        other.size = 0;
+    }
+
+    /**
+     * @param index the position of a value in the pile, in the order the
+     * values were added
+     * @return the value at that position
+     */
+    public long get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + 
+                                                " of " + size);
+        }
+        return chunks[(int) (index >>> CHUNK_SHIFT)]
+                     [(int) index & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * @return the number of values in the pile
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Empties the pile, giving its chunks back to the pool.
+     */
+    public void recycle() {
+        for (int i = 0; i < chunkCount; i++) {
+            pool.give(chunks[i]);
+            chunks[i] = null;
+        }
+        chunkCount = 0;
+        size = 0;
+    }
+
+    /**
+     * The chunks not in use by any pile.
+     */
+    public static class ChunkPool {
+        // The free chunks.
+        private long[][] free = new long[16][];
+
+        // The number of free chunks.
+        private int count;
+
+        /**
+         * @return a chunk, reused if one is free
+         */
+        long[] take() {
+            if (count == 0) {
+                return new long[CHUNK_SIZE];
+            }
+            count--;
+            long[] chunk = free[count];
+            free[count] = null;
+            return chunk;
+        }
+
+        /**
+         * Returns a chunk that is no longer in use.
+         * @param chunk the chunk
+         */
+        void give(long[] chunk) {
+            if (count == free.length) {
+                free = Arrays.copyOf(free, count * 2);
+            }
+            free[count] = chunk;
+            count++;
+        }
+    }
+}
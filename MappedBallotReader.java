@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+
+/**
+ * Reads an election file by mapping it into memory and decoding the candidate
+ * header and the ballots directly from the mapped bytes.  The layout of the
+ * file is described in {@link RankedChoiceVoting}.
+ *
+ * Ballot lines are never turned into Strings.  The digits of each rank are
+ * decoded by a {@link BallotLineParser} straight from the mapped bytes, so
+ * reading the ballots is limited by how fast the file can be paged in rather
+ * than by tokenizing.  Files too large to map in one piece are read through
+ * a window that slides forward as the ballots are consumed.
+ */
+public class MappedBallotReader implements BallotSource {
+    // The largest part of the file that is mapped into memory at once.
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    // The open election file.
+    private final FileChannel channel;
+
+    // The size of the election file in bytes.
+    private final long fileSize;
+
+    // The part of the file that is currently mapped, and where it starts.
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    // The position within the window of the next byte to read.
+    private int position;
+
+    // The number of lines that have been read so far.
+    private long lineNumber;
+
+    // True once the end of the ballots has been reached.
+    private boolean finished;
+
+    // A malformed ballot line to report once the ballots before it have
+    // been returned.
+    private BallotFormatException pendingError;
+
+    // The candidate names read from the start of the file.
+    private final String[] candidateNames;
+
+    // Decodes the ballot lines.
+    private final BallotLineParser parser;
+
+    /**
+     * Opens an election file and reads the candidates from it.  The ballots
+     * can then be read with {@link #read(int[])}.
+     * @param filename the name of the file containing the election data
+     * @throws IOException if the file cannot be opened or read
+     * @throws InputMismatchException if the file does not start with the
+     * number of candidates followed by their names
+     */
+    public MappedBallotReader(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            mapWindow(0);
+            candidateNames = readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        parser = new BallotLineParser(candidateNames.length);
+    }
+
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * Reads as many ballots as fit in the block.  The ballots end at the end
+     * of the file or at the first empty line.
+     * @param block the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if the file cannot be read
+     * @throws BallotFormatException if a ballot line does not hold one rank
+     * for each candidate
+     */
+    @Override
+    public int read(int[] block) throws IOException {
+        if (pendingError != null) {
+            BallotFormatException error = pendingError;
+            pendingError = null;
+            throw error;
+        }
+        int numCandidates = candidateNames.length;
+        int capacity = numCandidates == 0 ? 0 : block.length / numCandidates;
+        int ballots = 0;
+        while (ballots < capacity && !finished) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                finished = true;
+                break;
+            }
+            int start = position;
+            int end = BallotLineParser.trimLineEnd(window, start, lineEnd);
+            position = lineEnd + 1;
+            lineNumber++;
+
+            int count = parser.parse(window, start, end, block,
+                                     ballots * numCandidates);
+            if (count == 0) {
+                finished = true;
+                break;
+            }
+            if (count < 0) {
+                finished = true;
+                BallotFormatException error = new BallotFormatException(
+                    lineNumber, parser.getErrorColumn(),
+                    parser.getErrorReason(), lineText(start, end));
+                if (ballots == 0) {
+                    throw error;
+                }
+                // Hand back the ballots before this line first.
+                pendingError = error;
+                break;
+            }
+            ballots++;
+        }
+        return ballots;
+    }
+
+    /**
+     * @return the offset in the file of the next line to be read
+     */
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    /**
+     * @return the number of lines that have been read so far
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Closes the election file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the number of candidates and their names.
+     * @return the candidate names
+     */
+    private String[] readHeader() throws IOException {
+        int lineEnd = findLineEnd();
+        if (lineEnd < 0) {
+            throw new InputMismatchException("The election file is empty");
+        }
+        int end = BallotLineParser.trimLineEnd(window, position, lineEnd);
+        int numCandidates = parseCount(window, position, end);
+        position = lineEnd + 1;
+        lineNumber++;
+
+        String[] names = new String[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                throw new InputMismatchException("Expected " + numCandidates +
+                                                 " candidate names");
+            }
+            end = BallotLineParser.trimLineEnd(window, position, lineEnd);
+            names[i] = lineText(position, end);
+            position = lineEnd + 1;
+            lineNumber++;
+        }
+        return names;
+    }
+
+    /**
+     * Parses the number of candidates from the first line of the file.
+     * Spaces around the number are ignored.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position just past the last byte of the line
+     * @return the number of candidates
+     * @throws InputMismatchException if the line does not hold a number
+     */
+    static int parseCount(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end && bytes.get(i) == ' ') {
+            i++;
+        }
+        int value = 0;
+        int digits = 0;
+        while (i < end && isDigit(bytes.get(i)) && digits < 9) {
+            value = value * 10 + (bytes.get(i) - '0');
+            digits++;
+            i++;
+        }
+        while (i < end && bytes.get(i) == ' ') {
+            i++;
+        }
+        if (digits == 0 || i != end) {
+            throw new InputMismatchException(
+                BallotLineParser.lineText(bytes, start, end));
+        }
+        return value;
+    }
+
+    /**
+     * Finds the end of the line starting at the current position.  If the
+     * line runs past the end of the window, the window is moved forward so
+     * that it starts with this line.
+     * @return the position of the newline ending the line, the end of the
+     * window if the last line of the file has no newline, or -1 if there are
+     * no more lines
+     */
+    private int findLineEnd() throws IOException {
+        while (true) {
+            int limit = window.limit();
+            boolean lastWindow = windowStart + limit >= fileSize;
+            if (position >= limit && lastWindow) {
+                return -1;
+            }
+            for (int i = position; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    return i;
+                }
+            }
+            if (lastWindow) {
+                return limit;
+            }
+            if (position == 0) {
+                throw new IOException("Line " + (lineNumber + 1) +
+                                      " of the election file is too long");
+            }
+            mapWindow(windowStart + position);
+        }
+    }
+
+    /**
+     * Maps the part of the file beginning at the given offset.
+     * @param start the offset in the file where the window starts
+     */
+    private void mapWindow(long start) throws IOException {
+        long size = Math.min(WINDOW_SIZE, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        position = 0;
+    }
+
+    /**
+     * Decodes part of the window as text.  This is used for candidate names
+     * and for reporting problems, never for ballots that parse correctly.
+     * @param start the position of the first byte of the text
+     * @param end the position just past the last byte of the text
+     * @return the text
+     */
+    private String lineText(int start, int end) {
+        return BallotLineParser.lineText(window, start, end);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Stores the ballots of an election in memory outside the Java heap, so that
+ * even hundreds of millions of ballots add almost nothing for the garbage 
+ * collector to trace or copy.  Each ballot is a fixed-width row listing the 
+ * candidates the voter ranked in order of preference, using one byte for 
+ * each entry when there are at most 255 candidates, two bytes when there are
+ * at most 65535 and four bytes otherwise.  If the voter ranked k candidates,
+ * the other entries of the row hold the number of candidates.  This is the 
+ * layout of the ballots in a binary election file, so the rows can also be 
+ * mapped straight from such a file; see 
+ * {@link BinaryElectionReader#mapBallots()}.
+ *
+ * The weights, which take eight bytes per ballot, are only stored once a 
+ * ballot with a weight other than 1 is added.  Nothing else is kept for each
+ * ballot, so ballots mapped from a file are never written to.  The memory 
+ * is held in direct or mapped buffers of at most CHUNK_BYTES bytes each, 
+ * every one holding a whole number of ballots.
+ */
+public class OffHeapBallotStore implements BallotStore {
+    // The most bytes in each buffer of rows.
+    private static final int CHUNK_BYTES = 1 << 26;
+
+    // The number of candidates, which is also the number of entries in a row.
+    private final int numCandidates;
+
+    // The number of bytes in each entry.
+    private final int width;
+
+    // The number of ballots in each buffer.
+    private final int rowsPerChunk;
+
+    // The preferences of the ballots.
+    private ByteBuffer[] rows;
+
+    // The weight of each ballot, or null if every ballot has a weight of 1.
+    private ByteBuffer[] weights;
+
+    // The number of ballots stored.
+    private long size;
+
+    // True if the rows are mapped from a file, so no more can be added.
+    private final boolean mapped;
+
+    /**
+     * Creates an empty store for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     */
+    public OffHeapBallotStore(int numCandidates) {
+        this(numCandidates, new ByteBuffer[0], 0, false);
+    }
+
+    private OffHeapBallotStore(int numCandidates, ByteBuffer[] rows, 
+                               long size, boolean mapped) {
+        this.numCandidates = numCandidates;
+        this.width = BinaryElectionFormat.rankWidth(numCandidates);
+        this.rowsPerChunk = Math.max(1, CHUNK_BYTES / 
+                                        Math.max(1, numCandidates * width));
+        this.rows = rows;
+        this.size = size;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Maps rows of preferences from a binary election file.
+     * @param channel the file
+     * @param position where in the file the first row starts
+     * @param ballots the number of rows
+     * @param numCandidates the number of candidates in the election
+     * @return a store holding the ballots, which cannot have more added
+     * @throws IOException if the file cannot be mapped, or a row is not a
+     * valid ballot
+     */
+    static OffHeapBallotStore map(FileChannel channel, long position, 
+                                  long ballots, int numCandidates) 
+            throws IOException {
+        int width = BinaryElectionFormat.rankWidth(numCandidates);
+        long rowSize = Math.max(1, (long) numCandidates * width);
+        long rowsPerChunk = Math.max(1, CHUNK_BYTES / rowSize);
+        ByteBuffer[] rows = 
+            new ByteBuffer[(int) ((ballots + rowsPerChunk - 1) / rowsPerChunk)];
+        for (int i = 0; i < rows.length; i++) {
+            long first = i * rowsPerChunk;
+            long count = Math.min(rowsPerChunk, ballots - first);
+            rows[i] = channel.map(FileChannel.MapMode.READ_ONLY, 
+                                  position + first * numCandidates * width,
+                                  count * numCandidates * width);
+        }
+        OffHeapBallotStore store = 
+            new OffHeapBallotStore(numCandidates, rows, ballots, true);
+        store.checkRows();
+        return store;
+    }
+
+    /**
+     * Checks that every row lists at least one candidate, none of them more
+     * than once, followed only by padding.  Rows mapped from a file never 
+     * pass through a {@link BallotValidator}, and a count trusts every entry
+     * to be a candidate, so this takes one pass over the rows before any are
+     * counted.
+     * @throws IOException if a row is not a valid ballot
+     */
+    private void checkRows() throws IOException {
+        long[] seen = new long[(numCandidates + 63) / 64];
+        for (long ballot = 0; ballot < size; ballot++) {
+            ByteBuffer buffer = rows[(int) (ballot / rowsPerChunk)];
+            int start = (int) (ballot % rowsPerChunk) * numCandidates;
+            int ranked = 0;
+            boolean valid = true;
+            for (; ranked < numCandidates; ranked++) {
+                int next = get(buffer, start + ranked);
+                if (next == numCandidates) {
+                    break;
+                }
+                if (next < 0 || next > numCandidates || 
+                    (seen[next >>> 6] & (1L << next)) != 0) {
+                    valid = false;
+                    break;
+                }
+                seen[next >>> 6] |= 1L << next;
+            }
+            for (int i = 0; i < ranked; i++) {
+                int next = get(buffer, start + i);
+                seen[next >>> 6] &= ~(1L << next);
+            }
+            for (int i = ranked; valid && i < numCandidates; i++) {
+                valid = get(buffer, start + i) == numCandidates;
+            }
+            if (!valid || ranked == 0) {
+                throw new IOException("The binary election file is " +
+                                      "truncated or corrupt: ballot " + 
+                                      (ballot + 1) + " is not valid");
+            }
+        }
+    }
+
+    /**
+     * Adds a ballot.
+     * @param ranks the array holding a valid ballot, with a rank for each
+     * candidate or 0 for the candidates the voter did not rank
+     * @param offset the position in the array of the first candidate's rank
+     * @param weight the number of voters who cast the ballot
+     * @return the index of the new ballot
+     * @throws IllegalStateException if the store's ballots are mapped from a
+     * file
+     */
+    @Override
+    public long add(int[] ranks, int offset, long weight) {
+        if (mapped) {
+            throw new IllegalStateException("Ballots mapped from a file " +
+                                            "cannot be added to");
+        }
+        long ballot = size;
+        int chunk = (int) (ballot / rowsPerChunk);
+        int row = (int) (ballot % rowsPerChunk);
+        if (row == 0) {
+            rows = Arrays.copyOf(rows, chunk + 1);
+            rows[chunk] = ByteBuffer.allocateDirect(
+                rowsPerChunk * numCandidates * width);
+            if (weights != null) {
+                weights = Arrays.copyOf(weights, chunk + 1);
+                weights[chunk] = ByteBuffer.allocateDirect(rowsPerChunk * 8);
+            }
+        }
+
+        ByteBuffer buffer = rows[chunk];
+        int start = row * numCandidates;
+        for (int i = 0; i < numCandidates; i++) {
+            put(buffer, start + i, numCandidates);
+        }
+        for (int i = 0; i < numCandidates; i++) {
+            int rank = ranks[offset + i];
+            if (rank != 0) {
+                put(buffer, start + rank - 1, i);
+            }
+        }
+        if (weight != 1 && weights == null) {
+            addWeights();
+        }
+        if (weights != null) {
+            weights[chunk].putLong(row * 8, weight);
+        }
+        size++;
+        return ballot;
+    }
+
+    /**
+     * @return the number of ballots stored
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the ballots are mapped from a file
+     */
+    @Override
+    public boolean isReadOnly() {
+        return mapped;
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @return the number of voters who cast the ballot
+     */
+    @Override
+    public long getWeight(long ballot) {
+        if (weights == null) {
+            return 1;
+        }
+        return weights[(int) (ballot / rowsPerChunk)].getLong(
+            (int) (ballot % rowsPerChunk) * 8);
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @param preference which of the voter's preferences to read, counting 
+     * from 0 for their first choice
+     * @return the position of the candidate the voter gave that preference
+     */
+    @Override
+    public int getPreference(long ballot, int preference) {
+        return get(rows[(int) (ballot / rowsPerChunk)], 
+                   (int) (ballot % rowsPerChunk) * numCandidates + preference);
+    }
+
+    /**
+     * Finds the voter's top choice among the candidates still in the 
+     * election, reading down the ballot from a given preference past the 
+     * candidates that have been eliminated.
+     * @param ballot the index of a ballot
+     * @param from the first preference to read, counting from 0
+     * @param eliminated a bitset for the count, with the bit for each
+     * eliminated candidate set
+     * @return the first preference, from the given one on, that names a 
+     * candidate still in the election, or -1 if the ballot is exhausted
+     */
+    @Override
+    public int nextContinuingPreference(long ballot, int from, 
+                                        long[] eliminated) {
+        ByteBuffer buffer = rows[(int) (ballot / rowsPerChunk)];
+        int start = (int) (ballot % rowsPerChunk) * numCandidates;
+        for (int i = from; i < numCandidates; i++) {
+            int next = get(buffer, start + i);
+            if (next == numCandidates) {
+                break;
+            }
+            if ((eliminated[next >>> 6] & (1L << next)) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Starts storing weights, giving every ballot stored so far a weight of 1.
+     */
+    private void addWeights() {
+        weights = new ByteBuffer[rows.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = ByteBuffer.allocateDirect(rowsPerChunk * 8);
+            for (int row = 0; row < rowsPerChunk; row++) {
+                weights[i].putLong(row * 8, 1);
+            }
+        }
+    }
+
+    /**
+     * @param buffer a buffer of entries
+     * @param index the position of an entry, counting entries
+     * @return the entry
+     */
+    private int get(ByteBuffer buffer, int index) {
+        if (width == 1) {
+            return buffer.get(index) & 0xFF;
+        }
+        if (width == 2) {
+            return buffer.getShort(index * 2) & 0xFFFF;
+        }
+        return buffer.getInt(index * 4);
+    }
+
+    /**
+     * @param buffer a buffer of entries
+     * @param index the position of an entry, counting entries
+     * @param value the value to store in the entry
+     */
+    private void put(ByteBuffer buffer, int index, int value) {
+        if (width == 1) {
+            buffer.put(index, (byte) value);
+        } else if (width == 2) {
+            buffer.putShort(index * 2, (short) value);
+        } else {
+            buffer.putInt(index * 4, value);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.Arrays;
+
+/**
+ * Stores the ballots of an election packed into longs, using only as many 
+ * bits for each entry of a ballot as the number of candidates needs.  A 
+ * ballot is a row listing the candidates the voter ranked in order of 
+ * preference, with every unused entry of the row holding the number of 
+ * candidates, so each entry holds a number from 0 to n and takes just enough
+ * bits for n.  With 3 candidates a ballot takes 6 bits, so 10 ballots share 
+ * each long.
+ *
+ * Ballots small enough to fit in a long are packed several to a long and 
+ * never straddle two, so reading one of them loads a single word and works 
+ * on it with shifts.  Larger ballots take several 
+ * whole longs each, with as many entries in each long as fit.  The longs are
+ * kept in chunks of CHUNK_WORDS, so the store grows without copying the 
+ * ballots it already holds.  Weights are only stored once a ballot with a 
+ * weight other than 1 is added.
+ */
+public class PackedBallotStore implements BallotStore {
+    // The number of longs in each chunk.
+    private static final int CHUNK_WORDS = 1 << 16;
+
+    // The number of candidates, which is also the number of entries in a 
+    // row.
+    private final int numCandidates;
+
+    // The number of bits in each entry, and a mask of that many bits.
+    private final int bits;
+    private final long mask;
+
+    // The number of bits a ballot takes.
+    private final int ballotBits;
+
+    // The number of ballots in each long if a ballot fits in one, or 0.
+    private final int ballotsPerWord;
+
+    // The number of entries in each long and the number of longs in each 
+    // ballot, if a ballot does not fit in one long.
+    private final int entriesPerWord;
+    private final int wordsPerBallot;
+
+    // The number of ballots in each chunk.
+    private final int ballotsPerChunk;
+
+    // The packed ballots.
+    private long[][] words = new long[0][];
+
+    // The weight of each ballot, or null if every ballot has a weight of 1.
+    private long[][] weights;
+
+    // The number of ballots stored.
+    private long size;
+
+    /**
+     * Creates an empty store for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     */
+    public PackedBallotStore(int numCandidates) {
+        this.numCandidates = numCandidates;
+        this.bits = Math.max(1, Integer.SIZE - 
+                                Integer.numberOfLeadingZeros(numCandidates));
+        this.mask = (1L << bits) - 1;
+        this.ballotBits = Math.max(1, numCandidates) * bits;
+        if (fitsInLong(numCandidates)) {
+            ballotsPerWord = Long.SIZE / ballotBits;
+            entriesPerWord = 0;
+            wordsPerBallot = 0;
+            ballotsPerChunk = CHUNK_WORDS * ballotsPerWord;
+        } else {
+            ballotsPerWord = 0;
+            entriesPerWord = Long.SIZE / bits;
+            wordsPerBallot = (numCandidates + entriesPerWord - 1) / 
+                             entriesPerWord;
+            ballotsPerChunk = Math.max(1, CHUNK_WORDS / wordsPerBallot);
+        }
+    }
+
+    /**
+     * @param numCandidates the number of candidates in an election
+     * @return true if a whole ballot of the election fits in a single long
+     */
+    public static boolean fitsInLong(int numCandidates) {
+        int bits = Math.max(1, Integer.SIZE - 
+                               Integer.numberOfLeadingZeros(numCandidates));
+        return (long) numCandidates * bits <= Long.SIZE;
+    }
+
+    /**
+     * Adds a ballot.
+     * @param ranks the array holding a valid ballot, with a rank for each
+     * candidate or 0 for the candidates the voter did not rank
+     * @param offset the position in the array of the first candidate's rank
+     * @param weight the number of voters who cast the ballot
+     * @return the index of the new ballot
+     */
+    @Override
+    public long add(int[] ranks, int offset, long weight) {
+        long ballot = size;
+        int chunk = (int) (ballot / ballotsPerChunk);
+        int within = (int) (ballot % ballotsPerChunk);
+        if (within == 0) {
+            words = Arrays.copyOf(words, chunk + 1);
+            words[chunk] = new long[ballotsPerWord > 0 ? CHUNK_WORDS 
+                                    : ballotsPerChunk * wordsPerBallot];
+            if (weights != null) {
+                weights = Arrays.copyOf(weights, chunk + 1);
+                weights[chunk] = new long[ballotsPerChunk];
+            }
+        }
+        for (int i = 0; i < numCandidates; i++) {
+            setEntry(ballot, i, numCandidates);
+        }
+        for (int i = 0; i < numCandidates; i++) {
+            int rank = ranks[offset + i];
+            if (rank != 0) {
+                setEntry(ballot, rank - 1, i);
+            }
+        }
+        if (weight != 1 && weights == null) {
+            addWeights();
+        }
+        if (weights != null) {
+            weights[chunk][within] = weight;
+        }
+        size++;
+        return ballot;
+    }
+
+    /**
+     * @return the number of ballots stored
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return false, since ballots can always be added
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @return the number of voters who cast the ballot
+     */
+    @Override
+    public long getWeight(long ballot) {
+        if (weights == null) {
+            return 1;
+        }
+        return weights[(int) (ballot / ballotsPerChunk)]
+                      [(int) (ballot % ballotsPerChunk)];
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @param preference which of the voter's preferences to read, counting 
+     * from 0 for their first choice
+     * @return the position of the candidate the voter gave that preference
+     */
+    @Override
+    public int getPreference(long ballot, int preference) {
+        return getEntry(ballot, preference);
+    }
+
+    /**
+     * Finds the voter's top choice among the candidates still in the 
+     * election, reading down the ballot from a given preference past the 
+     * candidates that have been eliminated.
+     * @param ballot the index of a ballot
+     * @param from the first preference to read, counting from 0
+     * @param eliminated a bitset for the count, with the bit for each
+     * eliminated candidate set
+     * @return the first preference, from the given one on, that names a 
+     * candidate still in the election, or -1 if the ballot is exhausted
+     */
+    @Override
+    public int nextContinuingPreference(long ballot, int from, 
+                                        long[] eliminated) {
+        if (from >= numCandidates) {
+            return -1;
+        }
+        if (ballotsPerWord > 0) {
+            return nextInWord(ballot, from, eliminated);
+        }
+        for (int i = from; i < numCandidates; i++) {
+            int next = getEntry(ballot, i);
+            if (next == numCandidates) {
+                break;
+            }
+            if ((eliminated[next >>> 6] & (1L << next)) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The fast path of {@link #nextContinuingPreference(long, int, long[])}
+     * for ballots that fit in one long: the ballot is loaded once and its 
+     * entries are shifted out of the loaded word.
+     */
+    private int nextInWord(long ballot, int from, long[] eliminated) {
+        long[] chunk = words[(int) (ballot / ballotsPerChunk)];
+        int within = (int) (ballot % ballotsPerChunk);
+        int index = within / ballotsPerWord;
+        int shift = (within % ballotsPerWord) * ballotBits + from * bits;
+        long packed = chunk[index] >>> shift;
+        for (int i = from; i < numCandidates; i++) {
+            int next = (int) (packed & mask);
+            if (next == numCandidates) {
+                break;
+            }
+            if ((eliminated[next >>> 6] & (1L << next)) == 0) {
+                return i;
+            }
+            packed >>>= bits;
+        }
+        return -1;
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @param entry the preference to read, counting from 0
+     * @return the value of the entry
+     */
+    private int getEntry(long ballot, int entry) {
+        long[] chunk = words[(int) (ballot / ballotsPerChunk)];
+        int within = (int) (ballot % ballotsPerChunk);
+        int index;
+        int shift;
+        if (ballotsPerWord > 0) {
+            index = within / ballotsPerWord;
+            shift = (within % ballotsPerWord) * ballotBits + entry * bits;
+        } else {
+            index = within * wordsPerBallot + entry / entriesPerWord;
+            shift = (entry % entriesPerWord) * bits;
+        }
+        return (int) ((chunk[index] >>> shift) & mask);
+    }
+
+    /**
+     * @param ballot the index of a ballot
+     * @param entry the preference to set, counting from 0
+     * @param value the value to store in the entry
+     */
+    private void setEntry(long ballot, int entry, int value) {
+        long[] chunk = words[(int) (ballot / ballotsPerChunk)];
+        int within = (int) (ballot % ballotsPerChunk);
+        int index;
+        int shift;
+        if (ballotsPerWord > 0) {
+            index = within / ballotsPerWord;
+            shift = (within % ballotsPerWord) * ballotBits + entry * bits;
+        } else {
+            index = within * wordsPerBallot + entry / entriesPerWord;
+            shift = (entry % entriesPerWord) * bits;
+        }
+        chunk[index] = (chunk[index] & ~(mask << shift)) | 
+                       ((long) value << shift);
+    }
+
+    /**
+     * Starts storing weights, giving every ballot stored so far a weight of 1.
+     */
+    private void addWeights() {
+        weights = new long[words.length][];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = new long[ballotsPerChunk];
+            Arrays.fill(weights[i], 1);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the ballots of an election file, parsing them on several threads at
+ * once.
+ *
+ * The ballot part of the file is split into byte ranges that each end on a
+ * newline.  Every range is mapped and parsed by its own worker into a
+ * primitive buffer, and the buffers are handed out in file order.  Ballots
+ * therefore come out in the same order as when the file is read sequentially,
+ * and if several lines are malformed the one reported is always the first of
+ * them in the file.
+ */
+public class ParallelBallotParser implements BallotSource {
+    // Ranges smaller than this are not worth handing to another thread.
+    private static final long MIN_RANGE_SIZE = 1L << 20;
+
+    // Ranges are kept small so that the ranges in flight, each parsed into a
+    // buffer about twice its size, fit comfortably in memory.
+    private static final long MAX_RANGE_SIZE = 1L << 24;
+
+    // The open election file.
+    private final FileChannel channel;
+
+    // The candidate names read from the start of the file.
+    private final String[] candidateNames;
+
+    // The offset in the file of the first ballot line.
+    private final long ballotsOffset;
+
+    // The number of worker threads to parse with.
+    private final int threads;
+
+    // The threads parsing the ranges, started by the first read.
+    private ExecutorService workers;
+
+    // The offsets where the ranges start, followed by the end of the file.
+    private long[] bounds;
+
+    // The next range to hand to a worker.
+    private int nextRange;
+
+    // The ranges handed to workers, in file order.
+    private final Deque<Future<Range>> pending = new ArrayDeque<>();
+
+    // The range ballots are currently being read from, and the next ballot
+    // to read from it.
+    private Range current;
+    private int currentBallot;
+
+    // The number of lines before the current range.
+    private long lineNumber;
+
+    // True once the end of the ballots has been reached.
+    private boolean finished;
+
+    /**
+     * Opens an election file and reads the candidates from it.  The ballots
+     * can then be read with {@link #read(int[])}.
+     * @param filename the name of the file containing the election data
+     * @param threads the number of worker threads to parse with
+     * @throws IOException if the file cannot be opened or read
+     * @throws java.util.InputMismatchException if the file does not start
+     * with the number of candidates followed by their names
+     */
+    public ParallelBallotParser(String filename, int threads) throws IOException {
+        try (MappedBallotReader header = new MappedBallotReader(filename)) {
+            candidateNames = header.getCandidateNames();
+            ballotsOffset = header.getPosition();
+            lineNumber = header.getLineNumber();
+        }
+        this.threads = Math.max(1, threads);
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * Reads as many ballots as fit in the block.  The ballots end at the end
+     * of the file or at the first empty line.
+     * @param block the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if the file cannot be read
+     * @throws BallotFormatException if a ballot line does not hold one rank
+     * for each candidate
+     */
+    @Override
+    public int read(int[] block) throws IOException {
+        int numCandidates = candidateNames.length;
+        int capacity = numCandidates == 0 ? 0 : block.length / numCandidates;
+        int ballots = 0;
+        while (ballots < capacity && !finished) {
+            if (current == null || currentBallot == current.ballots) {
+                if (current != null && current.isLast()) {
+                    // Hand back the ballots before a malformed line first.
+                    if (ballots > 0) {
+                        break;
+                    }
+                    finished = true;
+                    if (current.errorText != null) {
+                        throw new BallotFormatException(
+                            lineNumber + current.ballots + 1,
+                            current.errorColumn, current.errorReason,
+                            current.errorText);
+                    }
+                    break;
+                }
+                if (current != null) {
+                    lineNumber += current.lines;
+                }
+                current = nextRange();
+                currentBallot = 0;
+                if (current == null) {
+                    finished = true;
+                    break;
+                }
+                continue;
+            }
+            int count = Math.min(capacity - ballots,
+                                 current.ballots - currentBallot);
+            System.arraycopy(current.ranks, currentBallot * numCandidates,
+                             block, ballots * numCandidates,
+                             count * numCandidates);
+            currentBallot += count;
+            ballots += count;
+        }
+        return ballots;
+    }
+
+    /**
+     * Stops the workers and closes the election file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        channel.close();
+    }
+
+    /**
+     * Waits for the next range in the file to be parsed, handing more ranges
+     * to the workers as needed.  Only a few ranges are kept in flight so that
+     * parsed buffers do not pile up faster than they are read.
+     * @return the next range, or null if there are no more
+     */
+    private Range nextRange() throws IOException {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(threads);
+            bounds = splitRanges();
+        }
+        while (nextRange < bounds.length - 1 && pending.size() < threads * 2) {
+            Range range = new Range(channel, candidateNames.length,
+                                    bounds[nextRange], bounds[nextRange + 1]);
+            pending.add(workers.submit(range));
+            nextRange++;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        return await(pending.remove());
+    }
+
+    /**
+     * Splits the ballot part of the file into ranges that end on newlines.
+     * @return the offsets where the ranges start, followed by the end of the
+     * file
+     */
+    private long[] splitRanges() throws IOException {
+        long fileSize = channel.size();
+        long rangeSize = (fileSize - ballotsOffset) / (threads * 4L);
+        rangeSize = Math.max(MIN_RANGE_SIZE,
+                             Math.min(MAX_RANGE_SIZE, rangeSize));
+
+        long[] starts = new long[16];
+        int count = 0;
+        long start = ballotsOffset;
+        while (start < fileSize) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count] = start;
+            count++;
+            start = lineStartAfter(start + rangeSize, fileSize);
+        }
+        starts = Arrays.copyOf(starts, count + 1);
+        starts[count] = Math.max(ballotsOffset, fileSize);
+        return starts;
+    }
+
+    /**
+     * Finds the start of the first line beginning after an offset.
+     * @param offset the offset to search from
+     * @param fileSize the size of the file
+     * @return the offset just past the first newline at or after the given
+     * offset, or the size of the file if there is none
+     */
+    private long lineStartAfter(long offset, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = offset;
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Waits for a worker to finish parsing its range.
+     * @param future the result of the worker
+     * @return the parsed range
+     */
+    private static Range await(Future<Range> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing " +
+                                             "ballots");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A byte range of the file and the ballots parsed from it.  The ballots
+     * are kept one after another in a single buffer of rank rows.
+     */
+    private static class Range implements Callable<Range> {
+        // The open election file.
+        private final FileChannel channel;
+
+        // The number of ranks on every ballot.
+        private final int numCandidates;
+
+        // The offsets in the file where the range starts and ends.
+        private final long start;
+        private final long end;
+
+        // The ranks of all the ballots in the range.
+        private int[] ranks;
+
+        // The number of ballots parsed.
+        private int ballots;
+
+        // The number of lines read, including an empty line ending the
+        // ballots.
+        private long lines;
+
+        // True if an empty line ended the ballots within this range.
+        private boolean stopped;
+
+        // The text of the first malformed line, or null if there was none,
+        // and where and why it went wrong.
+        private String errorText;
+        private int errorColumn;
+        private String errorReason;
+
+        Range(FileChannel channel, int numCandidates, long start, long end) {
+            this.channel = channel;
+            this.numCandidates = numCandidates;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return true if no ballots after this range should be read
+         */
+        boolean isLast() {
+            return stopped || errorText != null;
+        }
+
+        /**
+         * Parses the lines of the range until the end of the range, an empty
+         * line or a malformed line.
+         */
+        @Override
+        public Range call() throws IOException {
+            MappedByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int limit = bytes.limit();
+            BallotLineParser parser = new BallotLineParser(numCandidates);
+
+            // A ballot line takes at least 2 bytes for each rank.
+            int maxBallots = limit / Math.max(1, 2 * numCandidates) + 1;
+            ranks = new int[maxBallots * numCandidates];
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd =
+                    BallotLineParser.trimLineEnd(bytes, lineStart, lineEnd);
+                lines++;
+
+                int count = parser.parse(bytes, lineStart, contentEnd, ranks,
+                                         ballots * numCandidates);
+                if (count == 0) {
+                    stopped = true;
+                    break;
+                }
+                if (count < 0) {
+                    errorText =
+                        BallotLineParser.lineText(bytes, lineStart, contentEnd);
+                    errorColumn = parser.getErrorColumn();
+                    errorReason = parser.getErrorReason();
+                    break;
+                }
+                ballots++;
+                lineStart = lineEnd + 1;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.Arrays;
+
+/**
+ * Runs a ranked choice election, as {@link Election} does, with the ballots
+ * kept in a prefix tree instead of one by one.  Each node of the tree stands
+ * for a sequence of preferences, such as "A, then C", and counts the voters
+ * whose ballots start with that sequence.  Ballots that share their first
+ * few choices share the nodes for them, so a large electorate with few
+ * candidates needs only as many nodes as there are different prefixes of
+ * rankings, however many voters there are.
+ *
+ * The children of the root are the top continuing choices, one node for
+ * each candidate, so a candidate's votes are the count of their node under
+ * the root.  When a candidate is eliminated, their node is spliced out: each
+ * child is merged into the root's node for the same candidate, so whole
+ * groups of voters move at once and the work of a round depends on the
+ * number of nodes moved rather than the number of voters.  A merge adds the
+ * counts and joins the lists of children without merging them in turn, and
+ * children for candidates who were eliminated earlier are spliced out when
+ * they reach the root.
+ *
+ * The splicing is done on a copy of the links and counts of the nodes made
+ * for each count, so the tree itself never changes and can be counted again.
+ * The rounds themselves are run by a {@link RankedChoiceCount}, as they are
+ * for an {@link Election}, so the two can only differ in how votes move.
+ */
+public class PreferenceTree extends RankedChoiceElection {
+    // The number of nodes there is room for in a new tree.
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The value of a node link that does not lead to a node.
+    private static final int NONE = -1;
+
+    // Checks that ballots rank some of the candidates with 1 to k.
+    private final BallotValidator validator;
+
+    // The nodes of the tree.  Node i is for the candidate candidate[i], and
+    // its children are linked from firstChild[i] through nextSibling, ending
+    // at lastChild[i].  The root is not stored; its children are rootChild.
+    private int[] candidate = new int[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] lastChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+
+    // The number of voters whose ballots pass through each node, and the
+    // number whose ballots end there.
+    private long[] weight = new long[INITIAL_CAPACITY];
+    private long[] ending = new long[INITIAL_CAPACITY];
+
+    // The number of nodes in use.
+    private int size;
+
+    // The node under the root for each candidate, or NONE if no ballot has
+    // the candidate as its first choice.
+    private final int[] rootChild;
+
+    // The preferences of the ballot being added, in order.
+    private final int[] preferences;
+
+    /**
+     * Creates an election with no candidates or ballots.
+     * @param numCandidates the number of candidates in the election
+     */
+    public PreferenceTree(int numCandidates) {
+        super(numCandidates);
+        this.validator = new BallotValidator(numCandidates);
+        this.rootChild = new int[numCandidates];
+        Arrays.fill(rootChild, NONE);
+        this.preferences = new int[numCandidates];
+    }
+
+    /**
+     * @return the number of nodes created for the ballots, which is the
+     * number of different prefixes of the rankings added
+     */
+    public int getNodeCount() {
+        return size;
+    }
+
+    /**
+     * Checks a block of ballots and adds them to the tree.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @param votes the number of voters who cast each of the ballots
+     * @throws IllegalArgumentException if a ballot is not valid
+     */
+    @Override
+    protected void addRows(int[] rows, int count, long votes) {
+        int numCandidates = getCandidateCount();
+        for (int i = 0; i < count; i++) {
+            int start = i * numCandidates;
+            checkBallot(validator, rows, start);
+            insert(rows, start, votes);
+        }
+    }
+
+    /**
+     * Starts a count on a copy of the tree's links and counts, so the tree
+     * can be counted again.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round
+     * @return the count
+     */
+    @Override
+    protected RankedChoiceCount startCount(String[] names,
+                                           boolean batchElimination) {
+        return new Count(names, batchElimination);
+    }
+
+    /**
+     * Adds a ballot to the tree.
+     * @param ranks the array holding a valid ballot
+     * @param offset the position in the array of the first candidate's rank
+     * @param votes the number of voters who cast the ballot
+     */
+    private void insert(int[] ranks, int offset, long votes) {
+        int count = 0;
+        for (int i = 0; i < preferences.length; i++) {
+            int rank = ranks[offset + i];
+            if (rank != 0) {
+                preferences[rank - 1] = i;
+                count++;
+            }
+        }
+        int node = rootChild[preferences[0]];
+        if (node == NONE) {
+            node = newNode(preferences[0]);
+            rootChild[preferences[0]] = node;
+        }
+        weight[node] += votes;
+        for (int i = 1; i < count; i++) {
+            node = findChild(node, preferences[i]);
+            weight[node] += votes;
+        }
+        ending[node] += votes;
+    }
+
+    /**
+     * Finds the child of a node for a candidate, adding it if there is none.
+     * @param parent the node
+     * @param choice the candidate
+     * @return the child
+     */
+    private int findChild(int parent, int choice) {
+        for (int child = firstChild[parent]; child != NONE;
+                child = nextSibling[child]) {
+            if (candidate[child] == choice) {
+                return child;
+            }
+        }
+        int child = newNode(choice);
+        appendChildren(parent, child, child);
+        return child;
+    }
+
+    /**
+     * Creates a node with no voters or children.
+     * @param choice the candidate the node is for
+     * @return the new node
+     */
+    private int newNode(int choice) {
+        if (size == candidate.length) {
+            int capacity = size * 2;
+            candidate = Arrays.copyOf(candidate, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            weight = Arrays.copyOf(weight, capacity);
+            ending = Arrays.copyOf(ending, capacity);
+        }
+        int node = size;
+        size++;
+        candidate[node] = choice;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        return node;
+    }
+
+    /**
+     * Adds a list of siblings to the end of a node's children.
+     * @param parent the node
+     * @param first the first node of the list
+     * @param last the last node of the list
+     */
+    private void appendChildren(int parent, int first, int last) {
+        if (lastChild[parent] == NONE) {
+            firstChild[parent] = first;
+        } else {
+            nextSibling[lastChild[parent]] = first;
+        }
+        lastChild[parent] = last;
+    }
+
+    /**
+     * One count of the ballots in the tree.  The links and counts of the 
+     * nodes are copied, and the copies are spliced as candidates are 
+     * eliminated.
+     */
+    private class Count extends RankedChoiceCount {
+        // Copies of the tree's links and counts.
+        private final int[] firstChild = Arrays.copyOf(
+            PreferenceTree.this.firstChild, size);
+        private final int[] lastChild = Arrays.copyOf(
+            PreferenceTree.this.lastChild, size);
+        private final int[] nextSibling = Arrays.copyOf(
+            PreferenceTree.this.nextSibling, size);
+        private final long[] weight = Arrays.copyOf(
+            PreferenceTree.this.weight, size);
+        private final long[] ending = Arrays.copyOf(
+            PreferenceTree.this.ending, size);
+
+        // The node under the root for each continuing candidate, or NONE if
+        // no ballot has the candidate as its top continuing choice.
+        private final int[] rootChild = PreferenceTree.this.rootChild.clone();
+
+        // Nodes waiting to be spliced out while a candidate is eliminated.
+        private int[] splice = new int[16];
+
+        Count(String[] names, boolean batchElimination) {
+            super(names, batchElimination);
+            for (int i = 0; i < rootChild.length; i++) {
+                if (rootChild[i] != NONE) {
+                    addVotes(i, weight[rootChild[i]]);
+                }
+            }
+        }
+
+        /**
+         * Splices the nodes of the eliminated candidates out of the root.
+         * Their children for continuing candidates are merged into the root,
+         * and their children for eliminated candidates are spliced out in 
+         * turn.
+         * @param losers the candidates eliminated in the round
+         * @param count the number of candidates at the start of losers
+         */
+        @Override
+        protected void transferVotes(int[] losers, int count) {
+            int pending = 0;
+            for (int i = 0; i < count; i++) {
+                int loser = losers[i];
+                if (rootChild[loser] != NONE) {
+                    splice[pending] = rootChild[loser];
+                    pending++;
+                    rootChild[loser] = NONE;
+                }
+                while (pending > 0) {
+                    pending--;
+                    int node = splice[pending];
+                    // Voters whose ballots end here have no continuing choice.
+                    exhaustVotes(ending[node]);
+                    int child = firstChild[node];
+                    while (child != NONE) {
+                        int next = nextSibling[child];
+                        if (isEliminated(candidate[child])) {
+                            if (pending == splice.length) {
+                                splice = Arrays.copyOf(splice, pending * 2);
+                            }
+                            splice[pending] = child;
+                            pending++;
+                        } else {
+                            moveToRoot(child);
+                        }
+                        child = next;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Makes a node a child of the root, merging it into the root's node for
+         * the same candidate if there is one.
+         * @param node a node for a continuing candidate
+         */
+        private void moveToRoot(int node) {
+            int choice = candidate[node];
+            moveVotes(choice, weight[node]);
+            int target = rootChild[choice];
+            if (target == NONE) {
+                nextSibling[node] = NONE;
+                rootChild[choice] = node;
+                return;
+            }
+            weight[target] += weight[node];
+            ending[target] += ending[node];
+            if (firstChild[node] != NONE) {
+                if (lastChild[target] == NONE) {
+                    firstChild[target] = firstChild[node];
+                } else {
+                    nextSibling[lastChild[target]] = firstChild[node];
+                }
+                lastChild[target] = lastChild[node];
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.SplittableRandom;
+
+/**
+ * Generates random ballots, which is useful for trying out large elections
+ * without having to produce an election file first.  Each ballot ranks all
+ * the candidates in a random order.  The same seed always produces the same
+ * ballots.
+ */
+public class RandomBallotSource implements BallotSource {
+    // The generated candidate names.
+    private final String[] candidateNames;
+
+    // The number of ballots still to generate.
+    private long remaining;
+
+    // Produces the random orders.
+    private final SplittableRandom random;
+
+    /**
+     * Creates a source of random ballots.
+     * @param numCandidates the number of candidates in the election
+     * @param ballots the number of ballots to generate
+     * @param seed the seed for the random number generator
+     */
+    public RandomBallotSource(int numCandidates, long ballots, long seed) {
+        candidateNames = new String[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            candidateNames[i] = "Candidate " + (i + 1);
+        }
+        remaining = ballots;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return the generated candidate names
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * Generates as many ballots as fit in the block.
+     * @param block the array to store the ballots in
+     * @return the number of ballots generated, 0 if there are no more
+     */
+    @Override
+    public int read(int[] block) {
+        int numCandidates = candidateNames.length;
+        if (numCandidates == 0) {
+            return 0;
+        }
+        int ballots = (int) Math.min(block.length / numCandidates, remaining);
+        for (int b = 0; b < ballots; b++) {
+            int start = b * numCandidates;
+
+            // Shuffle the ranks 1 to n into the row.
+            for (int i = 0; i < numCandidates; i++) {
+                int j = random.nextInt(i + 1);
+                block[start + i] = block[start + j];
+                block[start + j] = i + 1;
+            }
+        }
+        remaining -= ballots;
+        return ballots;
+    }
+
+    /**
+     * There is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rounds of one ranked choice count, whatever way the ballots are kept.
+ * A count holds the tally of each candidate, the candidates who have been
+ * eliminated and the votes that have been exhausted, and runs rounds until
+ * a candidate has a majority or all the continuing candidates are tied.
+ * Each round eliminates the candidate with the fewest votes, or every
+ * candidate who is mathematically defeated if batch elimination is on, and
+ * then has the subclass move the votes of the eliminated candidates with
+ * {@link #transferVotes(int[], int)}.  A {@link Tabulation} moves ballots
+ * one at a time, and a {@link PreferenceTree} moves whole nodes of its tree.
+ *
+ * The continuing candidates are kept in a {@link CandidateHeap}, which is
+ * put back in order once the votes of a round have all moved.
+ */
+public abstract class RankedChoiceCount {
+    // The names of the candidates, in the order they appear on the ballots.
+    private final String[] names;
+
+    // The number of voters whose ballots ran out of continuing candidates.
+    private long exhaustedVotes;
+
+    // The number of voters whose top continuing choice is each candidate.
+    // It is updated as votes are moved, rather than recounted each round.
+    private final long[] tally;
+
+    // The number of voters whose ballots are not exhausted, which is the
+    // total of the tally.
+    private long continuingVotes;
+
+    // Marks the candidates who gained votes in the current round, and lists
+    // them in the order they gained them.
+    private final boolean[] touched;
+    private final int[] touchedList;
+    private int touchedCount;
+
+    // Whether all the candidates who cannot survive are eliminated at once,
+    // rather than one per round.
+    private final boolean batchElimination;
+
+    // The continuing candidates in the order they would be eliminated, of
+    // which the first few are eliminated in the current round.
+    private final int[] eliminationOrder;
+
+    // One bit for each candidate, set once the candidate is eliminated in
+    // this count.
+    private final long[] eliminated;
+
+    /**
+     * Starts a count with no votes.  The subclass gives the candidates their
+     * first-choice votes with {@link #addVotes(int, long)} before the count
+     * is run.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round, as described in
+     * {@link RankedChoiceElection#setBatchElimination(boolean)}
+     */
+    protected RankedChoiceCount (String[] names, boolean batchElimination) {
+        int numCandidates = names.length;
+        this.names = names;
+        this.batchElimination = batchElimination;
+        this.eliminated = new long[(numCandidates + 63) / 64];
+        this.tally = new long[numCandidates];
+        this.touched = new boolean[numCandidates];
+        this.touchedList = new int[numCandidates];
+        this.eliminationOrder = new int[numCandidates];
+    }
+
+    /**
+     * @return the number of voters whose ballots have been exhausted so far
+     * in this count, because every candidate they ranked has been eliminated
+     */
+    public long getExhaustedVotes() {
+        return exhaustedVotes;
+    }
+
+    /**
+     * Moves the votes of the candidates eliminated in a round to the voters'
+     * top continuing choices, with {@link #moveVotes(int, long)} and
+     * {@link #exhaustVotes(long)}.  The candidates are already marked
+     * eliminated and their tallies cleared, so each vote can move straight
+     * to its top choice among the survivors.
+     * @param losers the candidates eliminated in the round
+     * @param count the number of candidates at the start of losers
+     */
+    protected abstract void transferVotes(int[] losers, int count);
+
+    /**
+     * Gives a candidate first-choice votes before the count is run.
+     * @param candidate the position of the candidate
+     * @param votes the number of voters whose first choice is the candidate
+     */
+    protected void addVotes(int candidate, long votes) {
+        tally[candidate] += votes;
+        continuingVotes += votes;
+    }
+
+    /**
+     * Records voters whose ballots have no continuing choice before the
+     * count is run.
+     * @param votes the number of voters
+     */
+    protected void addExhaustedVotes(long votes) {
+        exhaustedVotes += votes;
+    }
+
+    /**
+     * Gives a continuing candidate the votes of ballots that move to them in
+     * the current round.
+     * @param candidate the position of the candidate
+     * @param votes the number of voters whose ballots move
+     */
+    protected void moveVotes(int candidate, long votes) {
+        tally[candidate] += votes;
+        if (!touched[candidate]) {
+            touched[candidate] = true;
+            touchedList[touchedCount] = candidate;
+            touchedCount++;
+        }
+    }
+
+    /**
+     * Records voters in the current round whose ballots have run out of
+     * continuing candidates, and no longer count.
+     * @param votes the number of voters
+     */
+    protected void exhaustVotes(long votes) {
+        exhaustedVotes += votes;
+        continuingVotes -= votes;
+    }
+
+    /**
+     * @return one bit for each candidate, set once the candidate is
+     * eliminated.  The bitset belongs to the count and must not be changed.
+     */
+    protected long[] getEliminated() {
+        return eliminated;
+    }
+
+    /**
+     * @param position the position of a candidate
+     * @return true if the candidate has been eliminated
+     */
+    protected boolean isEliminated(int position) {
+    	return (eliminated[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * Finds the continuing candidate with the highest total votes.  If
+     * several are tied for the highest total, the one that comes first on
+     * the ballot is chosen.
+     * @return position of the candidate with the largest top choice votes, or
+     * -1 if there are no continuing candidates
+     */
+    private int largestTotalCandidate() {
+    	int position = -1;
+    	for(int i = 0; i < tally.length; i++) {
+    		if(!isEliminated(i) && (position < 0 || tally[i] > tally[position])) {
+    			position = i;
+    		}
+    	}
+    	return position;
+    }
+
+    /**
+     * Calculates the number of votes a candidate needs to win, which is a
+     * majority of the votes on ballots that are not exhausted
+     * @return number votes needed to win
+     */
+    private long votesToWin() {
+    	return continuingVotes / 2 + 1;
+    }
+
+    /**
+     * Finds the largest group of candidates with the fewest votes whose votes
+     * added together are fewer than those of the next candidate, and takes
+     * them out of the heap.  The candidates are polled from the heap in
+     * order, so it must be in order, as it is after each round.
+     * @param continuing the continuing candidates
+     * @return the number of candidates in the group, which are at the start
+     * of eliminationOrder.  This is 0 if even the candidate with the fewest
+     * votes is tied with the next.
+     */
+    private int findDefeated(CandidateHeap continuing) {
+    	int count = continuing.size();
+    	for(int i = 0; i < count; i++) {
+    		eliminationOrder[i] = continuing.poll();
+    	}
+    	int defeated = 0;
+    	long sum = 0;
+    	//a candidate can only survive by overtaking the candidate after them
+    	for(int i = 0; i < count - 1; i++) {
+    		sum += tally[eliminationOrder[i]];
+    		if(sum < tally[eliminationOrder[i + 1]]) {
+    			defeated = i + 1;
+    		}
+    	}
+    	for(int i = defeated; i < count; i++) {
+    		continuing.add(eliminationOrder[i]);
+    	}
+    	return defeated;
+    }
+
+    /**
+     * if there is no candidate with majority vote,
+     * eliminates the candidate with the lowest amount of first preference votes,
+     * or all the candidates who are defeated if batch elimination is on,
+     * and moves their votes to the voters' next continuing choices.  The
+     * heap is then put back in order, as several candidates may have gained
+     * votes.
+     *
+     * @param continuing the continuing candidates
+     * @param leader the continuing candidate with the most votes
+     * @return the continuing candidate with the most votes after the votes
+     * are allocated
+     */
+    private int allocateVote(CandidateHeap continuing, int leader) {
+    	int eliminateCount = batchElimination ? findDefeated(continuing) : 0;
+    	if(eliminateCount == 0) {
+    		//position of candidate with least number of top choice votes
+    		eliminationOrder[0] = continuing.poll();
+    		eliminateCount = 1;
+    	}
+    	//every candidate is marked eliminated before any vote moves, so each
+    	//vote moves straight to its top choice among the survivors
+    	for(int c = 0; c < eliminateCount; c++) {
+    		int eliminatePosition = eliminationOrder[c];
+    		eliminated[eliminatePosition >>> 6] |= 1L << eliminatePosition;
+    		tally[eliminatePosition] = 0;
+    	}
+    	touchedCount = 0;
+    	transferVotes(eliminationOrder, eliminateCount);
+
+    	//only the candidates who gained votes can have overtaken the leader
+    	for(int i = 0; i < touchedCount; i++) {
+    		int candidate = touchedList[i];
+    		touched[candidate] = false;
+    		if(tally[candidate] > tally[leader] ||
+    				(tally[candidate] == tally[leader] && candidate < leader)) {
+    			leader = candidate;
+    		}
+    	}
+    	if(touchedCount > 0) {
+    		continuing.heapify();
+    	}
+    	return leader;
+    }
+
+    /**
+     * Apply the ranked choice voting algorithm to identify the winner.  Each
+     * round either finds a winner or a tie, or eliminates the candidate with
+     * the fewest votes, until one of the first two happens.
+     *
+     * @return If there is a winner, this method returns a list containing just
+     * the winner's name is returned.  If there is a tie, this method returns a
+     * list containing the names of the tied candidates.
+     */
+    public List<String> selectWinner () {
+    	ArrayList<String> winner= new ArrayList<String>();
+    	int mostVotePosition = largestTotalCandidate();
+    	if(mostVotePosition < 0) {
+    		return winner;
+    	}
+    	CandidateHeap continuing = new CandidateHeap(tally);
+    	for(int i = 0; i < tally.length; i++) {
+    		if(!isEliminated(i)) {
+    			continuing.add(i);
+    		}
+    	}
+
+    	while(true) {
+    		//if a candidate has a majority vote, that candidate is added to the winner array list
+    		if(tally[mostVotePosition] >= votesToWin()) {
+    			winner.add(names[mostVotePosition]);
+    			return winner;
+    		}
+    		//if the fewest votes equal the most, all the continuing candidates
+    		//are tied, so they are all added to the winner list
+    		if(tally[continuing.peek()] == tally[mostVotePosition]) {
+    			for(int i = 0; i < tally.length; i++) {
+    				if(!isEliminated(i)) {
+    					winner.add(names[i]);
+    				}
+    			}
+    			return winner;
+    		}
+    		//if no candidate has a majority vote, votes are allocated for the next round
+    		mostVotePosition = allocateVote(continuing, mostVotePosition);
+    	}
+    }
+}
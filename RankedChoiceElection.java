@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * What every kind of ranked choice election shares: the candidates, the ways
+ * of adding ballots, and running a count.  Ballots can be added one at a
+ * time, a block at a time or from a {@link BallotSource}, and are checked
+ * the same way whichever is used before the subclass keeps them with
+ * {@link #addRows(int[], int, long)}.  Each call to {@link #selectWinner()}
+ * counts the ballots afresh in the {@link RankedChoiceCount} made by
+ * {@link #startCount(String[], boolean)}.
+ */
+public abstract class RankedChoiceElection {
+    // The number of ballots pulled from a BallotSource at once.
+    private static final int BLOCK_SIZE = 4096;
+
+    // The names of all the candidates in the election, in the order they
+    // appear on the ballots.
+    private final String[] candidates;
+
+    // The next slot in the candidates array to fill.
+    private int nextCandidate;
+
+    // The number of voters whose ballots ran out of continuing candidates
+    // in the most recent count.
+    private long exhaustedVotes;
+
+    // Whether all the candidates who cannot survive are eliminated at once,
+    // rather than one per round.
+    private boolean batchElimination = true;
+
+    /**
+     * Creates an election with no candidates or ballots.
+     * @param numCandidates the number of candidates in the election
+     */
+    protected RankedChoiceElection (int numCandidates) {
+        this.candidates = new String[numCandidates];
+    }
+
+    /**
+     * Adds a candidate to the election
+     * @param name the candidate's name
+     */
+    public void addCandidate (String name) {
+        candidates[nextCandidate] = name;
+        nextCandidate++;
+    }
+
+    /**
+     * Adds a completed ballot to the election.
+     * @param ranks A correctly formulated ballot will have exactly 1
+     * entry with a rank of 1, exactly one entry with a rank of 2, etc.  If
+     * the voter ranked k of the candidates, the values in the rank array
+     * passed to the constructor will be some permutation of the numbers 1 to
+     * k, with a rank of 0 for each candidate the voter did not rank.
+     * @throws IllegalArgumentException if the ballot is not valid.
+     */
+    public void addBallot (int[] ranks) {
+        addBallot(ranks, 1);
+    }
+
+    /**
+     * Adds a ballot cast by several voters who all gave the same ranking,
+     * such as a line of a precinct summary.  The ballot is kept once and
+     * counts as many votes as its weight, so adding it takes the same time
+     * however many voters it stands for.
+     * @param ranks the ranking, formulated as for {@link #addBallot(int[])}
+     * @param weight the number of voters who cast the ballot
+     * @throws IllegalArgumentException if the ballot is not valid, or the
+     * weight is less than 1.
+     */
+    public void addBallot (int[] ranks, long weight) {
+        if (ranks.length != candidates.length) {
+            throw new IllegalArgumentException("Invalid ballot");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("Invalid weight: " + weight);
+        }
+        addRows(ranks, 1, weight);
+    }
+
+    /**
+     * Adds a block of completed ballots to the election.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @throws IllegalArgumentException if a ballot is not valid.  The
+     * ballots before it in the block are still added.
+     */
+    public void addBallots (int[] rows, int count) {
+        addRows(rows, count, 1);
+    }
+
+    /**
+     * Adds all the ballots from a source to the election.  The ballots are
+     * pulled from the source a block at a time.
+     * @param source the source of the ballots.  Its candidates must be the
+     * candidates of this election.
+     * @throws IOException if the ballots cannot be read from the source
+     * @throws IllegalArgumentException if the source has a different number
+     * of candidates, or a ballot is not valid.
+     */
+    public void addBallots (BallotSource source) throws IOException {
+        if (source.getCandidateNames().length != candidates.length) {
+            throw new IllegalArgumentException("The ballots are for " +
+                source.getCandidateNames().length + " candidates, not " +
+                candidates.length);
+        }
+        int[] block = new int[Math.max(1, candidates.length) * BLOCK_SIZE];
+        int count;
+        while ((count = source.read(block)) > 0) {
+            addBallots(block, count);
+        }
+    }
+
+    /**
+     * @return the number of voters whose ballots were exhausted in the most
+     * recent count, because every candidate they ranked was eliminated.
+     * Exhausted ballots no longer count towards the total that a majority is
+     * measured against.
+     */
+    public long getExhaustedVotes() {
+        return exhaustedVotes;
+    }
+
+    /**
+     * Chooses whether candidates who are mathematically defeated are all
+     * eliminated in a single round.  If the candidates with the fewest votes
+     * have fewer votes between them than the next candidate, none of them
+     * can overtake that candidate however the votes of the others move, so
+     * they can be eliminated together and their ballots moved in one pass.
+     * The winner is the same either way.  Batch elimination is on by
+     * default.
+     * @param batch true to eliminate defeated candidates together, false to
+     * eliminate one candidate per round
+     */
+    public void setBatchElimination(boolean batch) {
+        this.batchElimination = batch;
+    }
+
+    /**
+     * Apply the ranked choice voting algorithm to identify the winner.  The
+     * ballots are counted from the start each time, so calling this again,
+     * perhaps after adding more ballots or changing
+     * {@link #setBatchElimination(boolean)}, counts them all again.
+     *
+     * @return If there is a winner, this method returns a list containing just
+     * the winner's name is returned.  If there is a tie, this method returns a
+     * list containing the names of the tied candidates.
+     */
+    public List<String> selectWinner () {
+        RankedChoiceCount count = startCount(candidates, batchElimination);
+        List<String> winner = count.selectWinner();
+        exhaustedVotes = count.getExhaustedVotes();
+        return winner;
+    }
+
+    /**
+     * @return the number of candidates in the election
+     */
+    protected int getCandidateCount() {
+        return candidates.length;
+    }
+
+    /**
+     * Checks and keeps a block of ballots.
+     * @param rows the ballots, each a row of ranks with one rank for each
+     * candidate, stored one after another
+     * @param count the number of ballots in the block
+     * @param weight the number of voters who cast each of the ballots, which
+     * is at least 1
+     * @throws IllegalArgumentException if a ballot is not valid, as found by
+     * {@link #checkBallot(BallotValidator, int[], int)}.  The ballots before
+     * it in the block are still kept.
+     */
+    protected abstract void addRows(int[] rows, int count, long weight);
+
+    /**
+     * Starts a count of all the ballots added so far, with the first
+     * choices already tallied.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round
+     * @return the count
+     */
+    protected abstract RankedChoiceCount startCount(String[] names,
+                                                    boolean batchElimination);
+
+    /**
+     * Checks that a ballot ranks some of the candidates with the numbers 1
+     * to k, leaving the rest 0.
+     * @param validator the validator to check the ballot with
+     * @param rows the array holding the ballot
+     * @param start the position in the array of the first candidate's rank
+     * @throws IllegalArgumentException if the ballot is not valid
+     */
+    protected static void checkBallot(BallotValidator validator, int[] rows,
+                                      int start) {
+        if (!validator.isValid(rows, start)) {
+            throw new IllegalArgumentException("Invalid ballot: " +
+                validator.getErrorReason());
+        }
+    }
+}
@@ -1,8 +1,10 @@
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * The ranked choice voting program implements the ranked choice voting 
@@ -21,9 +23,17 @@ import java.util.Scanner;
  * on the ballot is the rank of the first candidate, the second number on the
  * ballot is the rank of the second candidate, etc.  A correctly formulated 
  * ballot line will have n integers, where n is the number of candidates.
- * Those integers will a permutation of the numbers 1 to n.  There can be
- * any number of ballots in the file. 
+ * Those integers will a permutation of the numbers 1 to n, separated by 
+ * spaces or tabs.  A voter who ranks only k of the candidates has a rank of
+ * 0 for each candidate they left out, and the other ranks are a permutation
+ * of the numbers 1 to k.  There can be any number of ballots in the file, 
+ * and an empty line ends the ballots.
  * </ul>
+ * 
+ * The file may also be in the binary format described in 
+ * {@link BinaryElectionFormat}, as written by {@link ElectionConverter}.
+ * A text file may be compressed with gzip (a name ending in .gz) or be the
+ * first file in a zip archive (a name ending in .zip).
  */
 public class RankedChoiceVoting {
     /**
@@ -32,7 +42,14 @@ public class RankedChoiceVoting {
      * winner, that winner is announced.  If there is a tie, it announces
      * who is tied.
      * @param args There should be one argument, which is the name of the file 
-     * containing the election data.
+     * containing the election data, or - to read the election data from 
+     * standard input.  The argument may also be a directory or a glob 
+     * pattern such as precincts/*.txt, in which case the ballots of all the
+     * files are counted together.  Alternatively, the arguments --random, 
+     * the number of candidates, the number of ballots and optionally a seed 
+     * run an election with randomly generated ballots, and the arguments 
+     * --validate and a file name check every ballot in a text election file 
+     * and list all the lines with problems instead of running the election.
      */
     public static void main(String[] args) {
         if (args.length == 0) {
@@ -42,7 +59,22 @@ public class RankedChoiceVoting {
             return;
         }
         
-        Election election = initializeElection(args[0]);
+        if (args[0].equals("--validate")) {
+            if (args.length < 2) {
+                System.out.println ("Usage: java RankedChoiceVoting " +
+                                    "--validate <file>");
+            } else {
+                validateElection(args[1]);
+            }
+            return;
+        }
+
+        Election election;
+        if (args[0].equals("--random")) {
+            election = generateElection(args);
+        } else {
+            election = initializeElection(args[0]);
+        }
         if (election != null) {
             announceWinner(election);
         }
@@ -53,53 +85,204 @@ public class RankedChoiceVoting {
      * file.  If the file does not exist, is not correctly formatted, or any 
      * ballot is incorrectly formatted, an error message is displayed and the 
      * election is not created.
-     * @param filename the name of the file containing the election data
+     * @param filename the name of the file containing the election data, or
+     * - for standard input
      * @return the initialized election object, or null if there were any 
      * problems while reading the election data.
      */
     private static Election initializeElection(String filename) {
-        String ballotLine = "";
         Election election = null;
+        try (BallotSource source = openBallotSource(filename)) {
+            election = createElection(source);
+        } catch (InputMismatchException e) {
+            System.out.println("The file should start with the number of " + 
+                               "candidates.");
+            election = null;
+        } catch (BallotFormatException e) {
+            System.out.println (e.getMessage());
+            election = null;
+        } catch (IllegalArgumentException e) {
+            System.out.println (e.getMessage() + ".  Run with --validate " +
+                                "to list every invalid ballot.");
+            election = null;
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.out.println ("Election file " + filename + 
+                                " was not found.");
+        } catch (IOException e) {
+            System.out.println ("Could not read election file " + filename +
+                                ": " + e.getMessage());
+            election = null;
+        }
+        
+        return election;
+    }
+
+    /**
+     * Checks every ballot in a text election file, which may be compressed,
+     * and reports each line that is not a valid ballot along with the number
+     * of valid ballots.  The file is read once, however many problems it has.
+     * @param filename the name of the file containing the election data, or
+     * - for standard input
+     */
+    private static void validateElection(String filename) {
+        ValidationReport report;
         try {
-            Scanner in = new Scanner (new File (filename));
-            
-            // Read in # of candidates
-            int numCandidates = in.nextInt();
-            in.nextLine();
-            election = new Election (numCandidates);
-            
-            // Read in the candidates
-            for (int i = 0; i < numCandidates; i++) {
-                String name = in.nextLine();
-                election.addCandidate(name);
+            if (!isTextFile(filename)) {
+                System.out.println ("Only a single text election file can " +
+                                    "be validated.");
+                return;
             }
-            
-            // Read in the ballots and assign to the candidates
-            while (in.hasNext()) {
-                ballotLine = in.nextLine();
-                if (ballotLine.equals("")) {
-                    break;
-                }
-                String[] rankStrings = ballotLine.split(" ");
-                int[] ranks = new int[rankStrings.length];
-                for (int i =0; i < rankStrings.length; i++) {
-                    ranks[i] = Integer.parseInt(rankStrings[i]);
-                }
-                election.addBallot(ranks);
+            try (InputStream in = openStream(filename);
+                 StreamBallotSource source = new StreamBallotSource (in)) {
+                report = source.validate();
             }
-            in.close();
-            
         } catch (InputMismatchException e) {
             System.out.println("The file should start with the number of " + 
                                "candidates.");
-        } catch (NumberFormatException e) {
-            System.out.println ("Could not parse a ballot: " + ballotLine);
-            election = null;
-        } catch (FileNotFoundException e) {
+            return;
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.out.println ("Election file " + filename + 
                                 " was not found.");
+            return;
+        } catch (IOException e) {
+            System.out.println ("Could not read election file " + filename +
+                                ": " + e.getMessage());
+            return;
         }
-        
+
+        for (ValidationReport.Problem problem : report.getProblems()) {
+            System.out.println (problem);
+        }
+        System.out.println (report.getValidBallots() + " valid ballots, " +
+                            report.getProblems().size() + 
+                            " lines with problems.");
+    }
+
+    /**
+     * @param filename the name given for the election data
+     * @return true if the name is - or a single file that is not in the 
+     * binary format
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean isTextFile(String filename) throws IOException {
+        if (filename.equals("-")) {
+            return true;
+        }
+        return !ShardedBallotSource.isSharded(filename) &&
+               !BinaryElectionFormat.isBinaryElectionFile(filename);
+    }
+
+    /**
+     * Opens a text election file for reading as a stream.
+     * @param filename the name of the file, or - for standard input
+     * @return the contents of the file, decompressed if necessary
+     * @throws IOException if the file cannot be opened
+     */
+    private static InputStream openStream(String filename) throws IOException {
+        if (filename.equals("-")) {
+            return System.in;
+        }
+        if (DecompressingInputStream.isCompressed(filename)) {
+            return new DecompressingInputStream (filename);
+        }
+        return new FileInputStream (filename);
+    }
+
+    /**
+     * Opens the election data, picking the reader that suits it.  Text files
+     * are parsed on all the available cores, and gzip files and zip archives
+     * are inflated on a separate thread while they are parsed.
+     * @param filename the name of the file containing the election data, a
+     * directory or glob pattern naming several files, or - for standard input
+     * @return a source of the ballots whose candidates have been read
+     * @throws IOException if the election data cannot be read
+     */
+    static BallotSource openBallotSource(String filename) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return openBallotSource(filename, cores);
+    }
+
+    /**
+     * Opens the election data, picking the reader that suits it.
+     * @param filename the name of the file containing the election data, a
+     * directory or glob pattern naming several files, or - for standard input
+     * @param threads the number of threads to parse with
+     * @return a source of the ballots whose candidates have been read
+     * @throws IOException if the election data cannot be read
+     */
+    static BallotSource openBallotSource(String filename, int threads) 
+            throws IOException {
+        if (filename.equals("-")) {
+            return new StreamBallotSource (System.in);
+        }
+        if (ShardedBallotSource.isSharded(filename)) {
+            return new ShardedBallotSource (filename, threads);
+        }
+        if (DecompressingInputStream.isCompressed(filename)) {
+            DecompressingInputStream in = new DecompressingInputStream (filename);
+            try {
+                return new StreamBallotSource (in);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        if (BinaryElectionFormat.isBinaryElectionFile(filename)) {
+            return new BinaryElectionReader (filename);
+        }
+        if (threads > 1) {
+            return new ParallelBallotParser (filename, threads);
+        }
+        return new MappedBallotReader (filename);
+    }
+
+    /**
+     * Creates an election with randomly generated ballots.
+     * @param args --random, the number of candidates, the number of ballots
+     * and optionally a seed
+     * @return the initialized election object, or null if the arguments are
+     * not numbers
+     */
+    private static Election generateElection(String[] args) {
+        try {
+            int numCandidates = Integer.parseInt(args[1]);
+            long ballots = Long.parseLong(args[2]);
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+            return createElection(new RandomBallotSource (numCandidates, 
+                                                          ballots, seed));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println ("Usage: java RankedChoiceVoting --random " +
+                                "<candidates> <ballots> [seed]");
+            return null;
+        } catch (IOException e) {
+            // Generating ballots does not do any I/O.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an election with the candidates from a ballot source and adds
+     * all of its ballots.
+     * @param source the source of the election data
+     * @return the initialized election object
+     * @throws IOException if the ballots cannot be read
+     */
+    private static Election createElection(BallotSource source) 
+            throws IOException {
+        String[] names = source.getCandidateNames();
+        Election election;
+        if (source instanceof BinaryElectionReader &&
+                ((BinaryElectionReader) source).canMapBallots()) {
+            // Count the ballots where they lie in the file, off the heap.
+            BinaryElectionReader reader = (BinaryElectionReader) source;
+            election = new Election (names.length, reader.mapBallots());
+        } else {
+            election = new Election (names.length);
+        }
+        for (String name : names) {
+            election.addCandidate(name);
+        }
+        election.addBallots(source);
         return election;
     }
 
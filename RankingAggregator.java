@@ -0,0 +1,172 @@
+/**
+ * Collapses identical ballots into one weighted ballot each.  With n 
+ * candidates there are at most n! different rankings, which for a handful of
+ * candidates is far fewer than the number of voters, so keeping one entry for
+ * each ranking with a count of the voters who chose it takes much less memory
+ * than keeping every ballot, and lets the election move whole groups of 
+ * voters at once.
+ *
+ * Each ranking is packed into a single long, with a few bits for the rank of
+ * each candidate, and the counts are kept in an open addressing hash table 
+ * keyed on the packed rankings.  This works when the ranks of all the 
+ * candidates fit in 64 bits, which is up to 15 candidates, but it only pays
+ * for a handful of them.  With more, most voters' rankings differ, and an
+ * entry in the table takes several times the memory of a packed ballot, so
+ * the elections aggregate only when {@link #isWorthwhile(int)} says so.
+ */
+public class RankingAggregator {
+    // The number of slots in a new table.  Always a power of 2.
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The most candidates whose ballots are aggregated by default.  Six
+    // candidates have under 2,000 rankings, partial ones included, while
+    // eight have over 100,000.
+    private static final int MAX_WORTHWHILE_CANDIDATES = 6;
+
+    // The number of candidates on each ballot.
+    private final int numCandidates;
+
+    // The number of bits used for each rank in a packed ranking.
+    private final int bitsPerRank;
+
+    // The packed rankings, with 0 marking an empty slot.  Unranked 
+    // candidates pack to 0, but every valid ballot ranks at least one 
+    // candidate, so no ranking packs to 0.
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    // The number of voters who chose the ranking in the same slot of keys.
+    private long[] counts = new long[INITIAL_CAPACITY];
+
+    // The number of different rankings in the table.
+    private int size;
+
+    /**
+     * Creates an empty table for the ballots of an election.
+     * @param numCandidates the number of candidates in the election
+     * @throws IllegalArgumentException if a ranking of that many candidates 
+     * does not fit in a long
+     */
+    public RankingAggregator(int numCandidates) {
+        if (!canAggregate(numCandidates)) {
+            throw new IllegalArgumentException("Cannot pack the rankings of " +
+                                               numCandidates + " candidates");
+        }
+        this.numCandidates = numCandidates;
+        this.bitsPerRank = bitsPerRank(numCandidates);
+    }
+
+    /**
+     * @param numCandidates the number of candidates in an election
+     * @return true if the rankings of that many candidates can be packed into
+     * a long and aggregated
+     */
+    public static boolean canAggregate(int numCandidates) {
+        return numCandidates > 0 && 
+               numCandidates * bitsPerRank(numCandidates) <= Long.SIZE;
+    }
+
+    /**
+     * @param numCandidates the number of candidates in an election
+     * @return true if there are few enough candidates that many voters share
+     * each ranking, so that aggregating the ballots saves memory and work
+     */
+    public static boolean isWorthwhile(int numCandidates) {
+        return canAggregate(numCandidates) && 
+               numCandidates <= MAX_WORTHWHILE_CANDIDATES;
+    }
+
+    /**
+     * Counts voters for a ranking.
+     * @param ranks the array holding a valid ballot
+     * @param offset the position in the array of the first candidate's rank
+     * @param weight the number of voters who chose the ranking
+     */
+    public void add(int[] ranks, int offset, long weight) {
+        long key = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            key = (key << bitsPerRank) | ranks[offset + i];
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] = Math.addExact(counts[slot], weight);
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * @return the number of different rankings counted so far
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds each ranking counted so far to a store as a ballot weighted by 
+     * the number of voters who chose it, and empties the table.
+     * @param store the store to add the weighted ballots to
+     */
+    public void drainTo(BallotStore store) {
+        int[] ranks = new int[numCandidates];
+        long rankMask = (1L << bitsPerRank) - 1;
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = keys[slot];
+            if (key == 0) {
+                continue;
+            }
+            for (int i = numCandidates - 1; i >= 0; i--) {
+                ranks[i] = (int) (key & rankMask);
+                key >>>= bitsPerRank;
+            }
+            store.add(ranks, 0, counts[slot]);
+        }
+        keys = new long[INITIAL_CAPACITY];
+        counts = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Doubles the size of the table, moving every ranking to its new slot.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of a packed ranking over the whole int, since similar 
+     * rankings differ only in a few low bits.
+     */
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) ^ (int) mixed;
+    }
+
+    /**
+     * @param numCandidates the number of candidates in an election
+     * @return the number of bits needed to hold any rank from 1 to n
+     */
+    private static int bitsPerRank(int numCandidates) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(numCandidates);
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the ballots of an election that is split across several files, such
+ * as one file per precinct.  Every file is a complete election file with the
+ * same candidates in the same order; the ballots of the election are the
+ * ballots of all the files together.
+ *
+ * The files are given either as a directory, in which case every file in it
+ * is read, or as a glob pattern for the file names in a directory, such as
+ * precincts/*.txt.  The files are read in order of their names, so the
+ * ballots come out exactly as they would from the files concatenated in that
+ * order.  Several files are parsed at once on worker threads, each into its
+ * own buffer, and the buffers are handed out in order.
+ */
+public class ShardedBallotSource implements BallotSource {
+    // The number of ballots in each block of a parsed file.
+    private static final int BLOCK_SIZE = 4096;
+
+    // The files holding the ballots, in the order they are read.
+    private final List<Path> shards;
+
+    // The candidate names shared by all the files.
+    private final String[] candidateNames;
+
+    // The number of worker threads to parse with.
+    private final int threads;
+
+    // The threads parsing the files, started by the first read.
+    private ExecutorService workers;
+
+    // The next file to hand to a worker.
+    private int nextShard;
+
+    // The files handed to workers, in order.
+    private final Deque<Future<Shard>> pending = new ArrayDeque<>();
+
+    // The file ballots are currently being read from, and the block and row
+    // within the block of the next ballot to read from it.
+    private Shard current;
+    private int currentBlock;
+    private int currentRow;
+
+    /**
+     * Finds the files of an election and reads the candidates from the first
+     * of them.
+     * @param pattern a directory, or a glob pattern for file names
+     * @param threads the number of worker threads to parse with
+     * @throws IOException if no files match or the first cannot be read
+     * @throws java.util.InputMismatchException if the first file does not
+     * start with the number of candidates followed by their names
+     */
+    public ShardedBallotSource(String pattern, int threads) throws IOException {
+        shards = findShards(pattern);
+        if (shards.isEmpty()) {
+            throw new NoSuchFileException(pattern);
+        }
+        try (BallotSource first = openShard(shards.get(0))) {
+            candidateNames = first.getCandidateNames();
+        }
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param filename the name given for the election data
+     * @return true if the name is a directory or a glob pattern
+     */
+    public static boolean isSharded(String filename) {
+        return hasGlob(filename) || new File(filename).isDirectory();
+    }
+
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * Reads as many ballots as fit in the block.
+     * @param block the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if a file cannot be read, has different
+     * candidates from the first file, or holds a malformed ballot
+     */
+    @Override
+    public int read(int[] block) throws IOException {
+        int numCandidates = candidateNames.length;
+        int capacity = numCandidates == 0 ? 0 : block.length / numCandidates;
+        int ballots = 0;
+        while (ballots < capacity) {
+            if (current == null || currentBlock == current.blocks.size()) {
+                current = nextShard();
+                currentBlock = 0;
+                currentRow = 0;
+                if (current == null) {
+                    break;
+                }
+                continue;
+            }
+            int available = current.counts[currentBlock] - currentRow;
+            int count = Math.min(capacity - ballots, available);
+            System.arraycopy(current.blocks.get(currentBlock),
+                             currentRow * numCandidates,
+                             block, ballots * numCandidates,
+                             count * numCandidates);
+            currentRow += count;
+            ballots += count;
+            if (currentRow == current.counts[currentBlock]) {
+                currentBlock++;
+                currentRow = 0;
+            }
+        }
+        return ballots;
+    }
+
+    /**
+     * Stops the workers.
+     */
+    @Override
+    public void close() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the next file to be parsed, handing more files to the
+     * workers as needed.  Only a few files are kept in flight so that parsed
+     * buffers do not pile up faster than they are read.
+     * @return the next file, or null if there are no more
+     */
+    private Shard nextShard() throws IOException {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(threads);
+        }
+        while (nextShard < shards.size() && pending.size() < threads * 2) {
+            Path path = shards.get(nextShard);
+            pending.add(workers.submit(() -> load(path)));
+            nextShard++;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing " +
+                                             "ballots");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Parses all the ballots in one file.  Runs on a worker thread.
+     * @param path the file to parse
+     * @return the parsed ballots
+     * @throws IOException if the file cannot be read, has different
+     * candidates from the first file, or holds a malformed ballot
+     */
+    private Shard load(Path path) throws IOException {
+        try (BallotSource source = openShard(path)) {
+            if (!Arrays.equals(source.getCandidateNames(), candidateNames)) {
+                throw new IOException(path + " does not have the same " +
+                                      "candidates as " + shards.get(0));
+            }
+            Shard shard = new Shard();
+            int size = Math.max(1, candidateNames.length) * BLOCK_SIZE;
+            int[] block = new int[size];
+            int count;
+            while ((count = source.read(block)) > 0) {
+                shard.add(block, count);
+                block = new int[size];
+            }
+            return shard;
+        } catch (BallotFormatException e) {
+            throw new IOException(path.getFileName() + ": " + e.getMessage(),
+                                  e);
+        }
+    }
+
+    /**
+     * Opens one of the files, reading it on a single thread since the files
+     * themselves are read in parallel.
+     * @param path the file to open
+     * @return a source of the ballots in the file
+     */
+    private static BallotSource openShard(Path path) throws IOException {
+        return RankedChoiceVoting.openBallotSource(path.toString(), 1);
+    }
+
+    /**
+     * Lists the files of an election, sorted by name.
+     * @param pattern a directory, or a glob pattern for file names
+     * @return the files
+     */
+    private static List<Path> findShards(String pattern) throws IOException {
+        Path directory;
+        PathMatcher matcher;
+        if (hasGlob(pattern)) {
+            int slash = Math.max(pattern.lastIndexOf('/'),
+                                 pattern.lastIndexOf(File.separatorChar));
+            String parent = slash < 0 ? "." : pattern.substring(0, slash + 1);
+            directory = Paths.get(parent);
+            matcher = FileSystems.getDefault().getPathMatcher(
+                "glob:" + pattern.substring(slash + 1));
+        } else {
+            directory = Paths.get(pattern);
+            matcher = path -> true;
+        }
+
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) &&
+                    matcher.matches(file.getFileName())) {
+                    found.add(file);
+                }
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private static boolean hasGlob(String filename) {
+        for (char c : "*?[{".toCharArray()) {
+            if (filename.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The ballots parsed from one file, kept in the blocks they were read
+     * into.
+     */
+    private static class Shard {
+        // The blocks of ballots.
+        private final List<int[]> blocks = new ArrayList<>();
+
+        // The number of ballots in each block.
+        private int[] counts = new int[4];
+
+        /**
+         * Adds a block of ballots.
+         * @param block the ballots
+         * @param count the number of ballots in the block
+         */
+        void add(int[] block, int count) {
+            if (blocks.size() == counts.length) {
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            counts[blocks.size()] = count;
+            blocks.add(block);
+        }
+    }
+}
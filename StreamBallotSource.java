@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+
+/**
+ * Reads election data in the text format described in
+ * {@link RankedChoiceVoting} from a stream, such as standard input.  The
+ * stream is read in large blocks and the ballots are decoded directly from
+ * the bytes, as {@link MappedBallotReader} does for files.
+ */
+public class StreamBallotSource implements BallotSource {
+    // The number of bytes read from the stream at once.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The stream the election data comes from.
+    private final InputStream in;
+
+    // Bytes read from the stream but not yet parsed lie between position
+    // and limit.
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private int position;
+    private int limit;
+
+    // True once the stream has no more bytes.
+    private boolean endOfStream;
+
+    // The number of lines that have been read so far.
+    private long lineNumber;
+
+    // True once the end of the ballots has been reached.
+    private boolean finished;
+
+    // A malformed ballot line to report once the ballots before it have
+    // been returned.
+    private BallotFormatException pendingError;
+
+    // The candidate names read from the start of the stream.
+    private final String[] candidateNames;
+
+    // Decodes the ballot lines.
+    private final BallotLineParser parser;
+
+    /**
+     * Reads the candidates from the start of a stream.  The ballots can then
+     * be read with {@link #read(int[])}.
+     * @param in the stream to read the election data from
+     * @throws IOException if the stream cannot be read
+     * @throws InputMismatchException if the stream does not start with the
+     * number of candidates followed by their names
+     */
+    public StreamBallotSource(InputStream in) throws IOException {
+        this.in = in;
+        int lineEnd = findLineEnd();
+        if (lineEnd < 0) {
+            throw new InputMismatchException("The election data is empty");
+        }
+        int end = BallotLineParser.trimLineEnd(buffer, position, lineEnd);
+        int numCandidates = MappedBallotReader.parseCount(buffer, position, end);
+        position = lineEnd + 1;
+        lineNumber++;
+
+        candidateNames = new String[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                throw new InputMismatchException("Expected " + numCandidates +
+                                                 " candidate names");
+            }
+            end = BallotLineParser.trimLineEnd(buffer, position, lineEnd);
+            candidateNames[i] = BallotLineParser.lineText(buffer, position, end);
+            position = lineEnd + 1;
+            lineNumber++;
+        }
+        parser = new BallotLineParser(numCandidates);
+    }
+
+    /**
+     * @return the names of the candidates, in the order they appear on the
+     * ballots
+     */
+    @Override
+    public String[] getCandidateNames() {
+        return candidateNames;
+    }
+
+    /**
+     * Reads as many ballots as fit in the block.  The ballots end at the end
+     * of the stream or at the first empty line.
+     * @param block the array to store the ballots in
+     * @return the number of ballots read, 0 if there are no more ballots
+     * @throws IOException if the stream cannot be read
+     * @throws BallotFormatException if a ballot line does not hold one rank
+     * for each candidate
+     */
+    @Override
+    public int read(int[] block) throws IOException {
+        if (pendingError != null) {
+            BallotFormatException error = pendingError;
+            pendingError = null;
+            throw error;
+        }
+        int numCandidates = candidateNames.length;
+        int capacity = numCandidates == 0 ? 0 : block.length / numCandidates;
+        int ballots = 0;
+        while (ballots < capacity && !finished) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                finished = true;
+                break;
+            }
+            int start = position;
+            int end = BallotLineParser.trimLineEnd(buffer, start, lineEnd);
+            position = lineEnd + 1;
+            lineNumber++;
+
+            int count = parser.parse(buffer, start, end, block,
+                                     ballots * numCandidates);
+            if (count == 0) {
+                finished = true;
+                break;
+            }
+            if (count < 0) {
+                finished = true;
+                BallotFormatException error = new BallotFormatException(
+                    lineNumber, parser.getErrorColumn(), parser.getErrorReason(),
+                    BallotLineParser.lineText(buffer, start, end));
+                if (ballots == 0) {
+                    throw error;
+                }
+                // Hand back the ballots before this line first.
+                pendingError = error;
+                break;
+            }
+            ballots++;
+        }
+        return ballots;
+    }
+
+    /**
+     * Checks every remaining ballot line in a single pass instead of stopping
+     * at the first problem.  Lines that cannot be parsed and ballots that are
+     * not ranked correctly are recorded in the report, and
+     * checking carries on with the next line.  The ballots end at the end of
+     * the stream or at the first empty line.
+     * @return the report of the valid ballots and the lines with problems
+     * @throws IOException if the stream cannot be read
+     */
+    public ValidationReport validate() throws IOException {
+        ValidationReport report = new ValidationReport();
+        int numCandidates = candidateNames.length;
+        int[] ranks = new int[numCandidates];
+        BallotValidator validator = new BallotValidator(numCandidates);
+        while (!finished) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                break;
+            }
+            int start = position;
+            int end = BallotLineParser.trimLineEnd(buffer, start, lineEnd);
+            position = lineEnd + 1;
+            lineNumber++;
+
+            int count = parser.parse(buffer, start, end, ranks, 0);
+            if (count == 0) {
+                break;
+            }
+            if (count < 0) {
+                report.addProblem(lineNumber, parser.getErrorColumn(),
+                                  parser.getErrorReason(),
+                                  BallotLineParser.lineText(buffer, start, end));
+            } else if (!validator.isValid(ranks, 0)) {
+                int column = BallotLineParser.rankColumn(
+                    buffer, start, end, validator.getErrorCandidate());
+                report.addProblem(lineNumber, column,
+                                  validator.getErrorReason(),
+                                  BallotLineParser.lineText(buffer, start, end));
+            } else {
+                report.addValidBallot();
+            }
+        }
+        finished = true;
+        return report;
+    }
+
+    /**
+     * Closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Finds the end of the line starting at the current position, reading
+     * more of the stream if the line is not complete yet.
+     * @return the position of the newline ending the line, the end of the
+     * data if the last line has no newline, or -1 if there are no more lines
+     */
+    private int findLineEnd() throws IOException {
+        int searched = position;
+        while (true) {
+            for (int i = searched; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    return i;
+                }
+            }
+            if (endOfStream) {
+                return position < limit ? limit : -1;
+            }
+            searched = limit - position;
+            fill();
+        }
+    }
+
+    /**
+     * Moves the unparsed bytes to the start of the buffer and reads more of
+     * the stream after them.  The buffer grows if a line does not fit.
+     */
+    private void fill() throws IOException {
+        int unparsed = limit - position;
+        if (unparsed == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            buffer = ByteBuffer.wrap(bytes);
+        } else {
+            System.arraycopy(bytes, position, bytes, 0, unparsed);
+        }
+        position = 0;
+        limit = unparsed;
+        int read = in.read(bytes, limit, bytes.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+}
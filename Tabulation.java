@@ -0,0 +1,285 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * One count of the ballots of an {@link Election}.  Everything that changes
+ * while the ballots are counted lives here rather than in the ballots: the 
+ * candidates and the piles of ballots they hold, and, in the 
+ * {@link RankedChoiceCount} that runs the rounds, the tally, the candidates
+ * who have been eliminated and the votes that have been exhausted.  The 
+ * ballots are only read, so the same ballots can be counted again, for a 
+ * recount or with different rules, without reading the election data again.
+ *
+ * Each ballot sits in the pile of its top continuing candidate, as an 
+ * entry that packs the ballot's index with the preference that names the 
+ * candidate.  When a candidate is eliminated, each ballot in their pile is 
+ * read on from just after that preference, passing over the eliminated 
+ * candidates, to find its next choice, so over the whole count each 
+ * preference on a ballot is read at most once.  The 
+ * first choices, which take a pass over every ballot, and the next choices
+ * on the pile of a candidate with a great many ballots are found on several
+ * threads at once.
+ */
+public class Tabulation extends RankedChoiceCount {
+    // The fewest ballots worth giving a thread of their own.
+    private static final long MIN_BALLOTS_PER_TASK = 1 << 16;
+    
+    // The candidates, created afresh for this count.
+    private final Candidate[] candidates;
+    
+    // The chunks shared by the candidates' piles of ballots.
+    private final LongPile.ChunkPool pool = new LongPile.ChunkPool();
+    
+    // The ballots being counted.
+    private final BallotStore ballots;
+    
+    // The number of low bits of a pile entry that hold the preference the 
+    // ballot has reached, above which is the ballot's index.
+    private final int preferenceBits;
+    
+    /**
+     * Starts a count by giving every ballot to the voter's first choice, as
+     * described in {@link #assignBallots()}.
+     * @param names the names of the candidates, in the order they appear on
+     * the ballots
+     * @param ballots the ballots to count, which are not changed
+     * @param batchElimination true to eliminate all the candidates who are
+     * mathematically defeated in a single round, as described in 
+     * {@link RankedChoiceElection#setBatchElimination(boolean)}
+     */
+    public Tabulation (String[] names, BallotStore ballots, 
+                       boolean batchElimination) {
+        super(names, batchElimination);
+        int numCandidates = names.length;
+        this.candidates = new Candidate[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+            candidates[i] = new Candidate (names[i], pool);
+        }
+        this.ballots = ballots;
+        this.preferenceBits = Integer.SIZE - 
+            Integer.numberOfLeadingZeros(Math.max(0, numCandidates - 1));
+        if (ballots.size() > Long.MAX_VALUE >>> preferenceBits) {
+            throw new IllegalStateException("Too many ballots to count: " +
+                                            ballots.size());
+        }
+        assignBallots();
+    }
+
+    /**
+     * Determines which candidate is the top choice on each ballot and gives
+     * the ballot to that candidate.  The ballots are split into ranges that
+     * are tallied at the same time, each into a histogram and piles of its 
+     * own, and the results are merged once every range is done.  The 
+     * candidates take over the full chunks of each range's piles rather than
+     * copying them, so merging costs little.
+     */
+    private void assignBallots() {
+        long size = ballots.size();
+        for (TopChoices range : findTopChoices(null, size, rangesFor(size))) {
+            addExhaustedVotes(range.exhausted);
+            for (int c = 0; c < candidates.length; c++) {
+                if (range.piles[c] != null) {
+                    candidates[c].addBallots(range.piles[c]);
+                    addVotes(c, range.votes[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the ballots on an eliminated candidate's pile to their top 
+     * continuing choices, splitting the pile into ranges that are sorted at
+     * the same time.  The ranges are merged in order, so the tallies and the
+     * order of the ballots in the piles do not depend on which thread 
+     * finishes first.
+     * @param pile the ballots to move
+     * @param parts the number of ranges to split the pile into
+     */
+    private void moveInParallel(LongPile pile, int parts) {
+        for (TopChoices range : findTopChoices(pile, pile.size(), parts)) {
+            exhaustVotes(range.exhausted);
+            for (int c = 0; c < candidates.length; c++) {
+                if (range.piles[c] != null) {
+                    candidates[c].addBallots(range.piles[c]);
+                    moveVotes(c, range.votes[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a run of ballots into ranges and finds the top continuing 
+     * choice on every ballot, working on the ranges at the same time in the
+     * common fork-join pool.
+     * @param pile the ballots, or null for all the ballots in the store
+     * @param size the number of ballots
+     * @param parts the number of ranges
+     * @return the ranges, in order
+     */
+    private TopChoices[] findTopChoices(LongPile pile, long size, int parts) {
+        TopChoices[] ranges = new TopChoices[parts];
+        for (int i = 0; i < parts; i++) {
+            ranges[i] = new TopChoices(ballots, pile, preferenceBits, 
+                                       getEliminated(), candidates.length, 
+                                       size / parts * i,
+                                       i == parts - 1 ? size : 
+                                       size / parts * (i + 1));
+        }
+        ForkJoinTask.invokeAll(ranges);
+        return ranges;
+    }
+
+    /**
+     * @param size a number of ballots
+     * @return how many ranges to split the ballots into, which is 1 if there
+     * are too few to be worth splitting
+     */
+    private int rangesFor(long size) {
+        // Each range leaves a partly filled chunk in the pile of every 
+        // candidate, so a range needs many more ballots than candidates.
+        long minimum = Math.max(MIN_BALLOTS_PER_TASK, 
+                                (long) candidates.length * LongPile.CHUNK_SIZE);
+        return (int) Math.max(1, Math.min(
+            ForkJoinPool.getCommonPoolParallelism(), size / minimum));
+    }
+    
+    /**
+     * gets the candidate at a specific position
+     * @param position of the candidate needed
+     * @return candidate at a given position
+     */
+    private Candidate getCandidate(int position) {
+    	Candidate candidate = candidates[position];
+    	return candidate;
+    }
+    
+    /**
+     * Moves the ballots in the piles of the eliminated candidates to their
+     * top continuing choices, reading each ballot on from the preference 
+     * that named the eliminated candidate.  A large pile is split between 
+     * several threads.
+     * @param losers the candidates eliminated in the round
+     * @param count the number of candidates at the start of losers
+     */
+    @Override
+    protected void transferVotes(int[] losers, int count) {
+    	int secondPreferencePosition = 0;
+    	long[] eliminated = getEliminated();
+    	for(int c = 0; c < count; c++) {
+    		Candidate candidateName = getCandidate(losers[c]);
+    		//eliminates a candidate
+    		//and returns all of the ballots for which this candidate was the top choice
+    		LongPile toAllocate = candidateName.eliminate();
+    		int parts = rangesFor(toAllocate.size());
+    		if(parts > 1) {
+    			//a large pile is split between several threads
+    			moveInParallel(toAllocate, parts);
+    			toAllocate.recycle();
+    			continue;
+    		}
+    		for(long i = 0; i < toAllocate.size(); i++) {
+    			long entry = toAllocate.get(i);
+    			long ballot = entry >>> preferenceBits;
+    			long weight = ballots.getWeight(ballot);
+    			//reads on from the preference that named the eliminated 
+    			//candidate, skipping every eliminated candidate
+    			int from = (int) (entry & ~(-1L << preferenceBits)) + 1;
+    			int preference = 
+    				ballots.nextContinuingPreference(ballot, from, eliminated);
+    			//a ballot with no continuing candidates left is exhausted
+    			if(preference < 0) {
+    				exhaustVotes(weight);
+    				continue;
+    			}
+    			secondPreferencePosition = 
+    				ballots.getPreference(ballot, preference);
+    			Candidate secondCandidate = getCandidate(secondPreferencePosition);
+    			secondCandidate.addBallot(ballot << preferenceBits | preference);
+    			moveVotes(secondPreferencePosition, weight);
+    		}
+    		//the chunks of the pile can now hold other candidates' ballots
+    		toAllocate.recycle();
+    	}
+    }
+
+    /**
+     * Finds the top continuing choice on each ballot in a range, either of 
+     * all the ballots in the store or of the ballots on an eliminated 
+     * candidate's pile.  Runs on a thread of the fork-join pool.
+     */
+    private static class TopChoices extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // The ballots being counted.
+        private final BallotStore ballots;
+
+        // The pile holding the ballots in the range, or null if the range is
+        // of the ballots in the store.
+        private final LongPile pile;
+
+        // The number of low bits of a pile entry that hold a preference.
+        private final int preferenceBits;
+
+        // The candidates who have been eliminated, which does not change 
+        // while the range is sorted.
+        private final long[] eliminated;
+
+        // The first position in the range, and the position just past it.
+        private final long start;
+        private final long end;
+
+        // The number of voters in the range whose top choice is each 
+        // candidate.
+        private final long[] votes;
+
+        // The ballots in the range whose top choice is each candidate, or 
+        // null if there are none.
+        private final LongPile[] piles;
+
+        // The number of voters in the range whose ballots are exhausted.
+        private long exhausted;
+
+        TopChoices(BallotStore ballots, LongPile pile, int preferenceBits, 
+                   long[] eliminated, int numCandidates, long start, 
+                   long end) {
+            this.ballots = ballots;
+            this.pile = pile;
+            this.preferenceBits = preferenceBits;
+            this.eliminated = eliminated;
+            this.start = start;
+            this.end = end;
+            this.votes = new long[numCandidates];
+            this.piles = new LongPile[numCandidates];
+        }
+
+        @Override
+        protected void compute() {
+            LongPile.ChunkPool pool = new LongPile.ChunkPool();
+            long preferenceMask = ~(-1L << preferenceBits);
+            for (long i = start; i < end; i++) {
+                long ballot = i;
+                int from = 0;
+                if (pile != null) {
+                    long entry = pile.get(i);
+                    ballot = entry >>> preferenceBits;
+                    from = (int) (entry & preferenceMask) + 1;
+                }
+                long weight = ballots.getWeight(ballot);
+                int preference = ballots.nextContinuingPreference(ballot, 
+                                                                  from, 
+                                                                  eliminated);
+                if (preference < 0) {
+                    exhausted += weight;
+                    continue;
+                }
+                int candidate = ballots.getPreference(ballot, preference);
+                if (piles[candidate] == null) {
+                    piles[candidate] = new LongPile(pool);
+                }
+                piles[candidate].add(ballot << preferenceBits | preference);
+                votes[candidate] += weight;
+            }
+        }
+    }
+}
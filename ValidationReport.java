@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of checking every ballot in an election file: how many ballots
+ * are valid, and each line that is not, with where and why it went wrong.
+ * A report is built in a single pass over the file, so a file with many bad
+ * lines can be cleaned up without re-running the check once for each.
+ */
+public class ValidationReport {
+    // The lines with problems, in the order they appear in the file.
+    private final List<Problem> problems = new ArrayList<>();
+
+    // The number of ballots that are valid.
+    private long validBallots;
+
+    /**
+     * Records a line that is not a valid ballot.
+     * @param lineNumber the line of the file, counting from 1
+     * @param column the column of the line, counting from 1, where the
+     * problem was found
+     * @param reason why the line is not a valid ballot
+     * @param line the text of the line
+     */
+    void addProblem(long lineNumber, int column, String reason, String line) {
+        problems.add(new Problem(lineNumber, column, reason, line));
+    }
+
+    /**
+     * Records a valid ballot.
+     */
+    void addValidBallot() {
+        validBallots++;
+    }
+
+    /**
+     * @return the lines that are not valid ballots, in the order they appear
+     * in the file
+     */
+    public List<Problem> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * @return the number of ballots that are valid
+     */
+    public long getValidBallots() {
+        return validBallots;
+    }
+
+    /**
+     * @return true if every ballot is valid
+     */
+    public boolean isClean() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * A line of an election file that is not a valid ballot.
+     */
+    public static class Problem {
+        // The line of the file, counting from 1.
+        private final long lineNumber;
+
+        // The column of the line, counting from 1, where the problem was
+        // found.
+        private final int column;
+
+        // Why the line is not a valid ballot.
+        private final String reason;
+
+        // The text of the line.
+        private final String line;
+
+        private Problem(long lineNumber, int column, String reason,
+                        String line) {
+            this.lineNumber = lineNumber;
+            this.column = column;
+            this.reason = reason;
+            this.line = line;
+        }
+
+        /**
+         * @return the line of the file, counting from 1
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return the column of the line, counting from 1, where the problem
+         * was found
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * @return why the line is not a valid ballot
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return the text of the line
+         */
+        public String getLine() {
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + lineNumber + ", column " + column + " (" +
+                   reason + "): " + line;
+        }
+    }
+}